@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import java.util.Arrays;
+
+/**
+ * Collects a run of insertions and removals of elements of one array, and writes them back to the array
+ * all at once.
+ *
+ * <p>{@link ArrayNode#insert} and {@link ArrayNode#remove} each shift all following elements, which makes k
+ * edits to an array of n elements cost O(n·k). The elements are held in a gap buffer instead: the free
+ * space sits wherever the last edit was made, so an edit only shifts the elements between it and the
+ * previous one. Edits that make their way through the array in order, as those of a diff do, thus cost
+ * O(n + k) in total, including writing the result back.
+ *
+ * <p>Only the part of the array from the lowest index edited onwards is buffered and written back; the
+ * elements before it are left where they are. The array itself is left as it was until {@link #flush()}
+ * is called.
+ */
+final class ArrayBatch {
+    private static final int MIN_SLACK = 16;
+
+    final JsonPointer path;
+    final ArrayNode array;
+    private int base;           // index in the array of the first buffered element
+    private JsonNode[] elements;
+    private int gapStart;
+    private int gapEnd;
+
+    /**
+     * Creates a batch of edits of the specified array, starting at the specified index.
+     */
+    ArrayBatch(JsonPointer path, ArrayNode array, int from) {
+        this.path = path;
+        this.array = array;
+        this.base = Math.max(0, Math.min(from, array.size()));
+        int count = array.size() - base;
+        this.elements = new JsonNode[count + Math.max(MIN_SLACK, count / 4)];
+        // The gap comes first, at the index of the edit about to be made
+        this.gapStart = 0;
+        this.gapEnd = elements.length - count;
+        for (int i = 0; i < count; i++)
+            elements[gapEnd + i] = array.get(base + i);
+    }
+
+    int size() {
+        return base + elements.length - (gapEnd - gapStart);
+    }
+
+    JsonNode get(int index) {
+        cover(index);
+        return elements[position(index)];
+    }
+
+    JsonNode set(int index, JsonNode value) {
+        cover(index);
+        int position = position(index);
+        JsonNode previous = elements[position];
+        elements[position] = value;
+        return previous;
+    }
+
+    void insert(int index, JsonNode value) {
+        cover(index);
+        if (gapStart == gapEnd)
+            grow(0);
+        moveGap(index - base);
+        elements[gapStart++] = value;
+    }
+
+    JsonNode remove(int index) {
+        cover(index);
+        moveGap(index - base);
+        JsonNode removed = elements[gapEnd];
+        elements[gapEnd++] = null;
+        return removed;
+    }
+
+    /**
+     * Writes the edits back to the array.
+     */
+    void flush() {
+        for (int i = array.size() - 1; i >= base; i--)
+            array.remove(i);
+        for (int i = 0; i < gapStart; i++)
+            array.add(elements[i]);
+        for (int i = gapEnd; i < elements.length; i++)
+            array.add(elements[i]);
+    }
+
+    private int position(int index) {
+        int offset = index - base;
+        return offset < gapStart ? offset : offset + gapEnd - gapStart;
+    }
+
+    /**
+     * Extends the buffer to the left so as to include the specified index, by at least as many elements as
+     * it already holds, so that edits working their way backwards only copy each element a few times.
+     */
+    private void cover(int index) {
+        if (index >= base)
+            return;
+        int count = elements.length - (gapEnd - gapStart);
+        int newBase = Math.max(0, Math.min(index, base - Math.max(MIN_SLACK, count)));
+        int added = base - newBase;
+        moveGap(0);
+        grow(added);
+        for (int i = 0; i < added; i++)
+            elements[i] = array.get(newBase + i);
+        gapStart = added;
+        base = newBase;
+    }
+
+    private void moveGap(int offset) {
+        if (offset < gapStart) {
+            int count = gapStart - offset;
+            System.arraycopy(elements, offset, elements, gapEnd - count, count);
+            Arrays.fill(elements, offset, Math.min(gapStart, gapEnd - count), null);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (offset > gapStart) {
+            int count = offset - gapStart;
+            System.arraycopy(elements, gapEnd, elements, gapStart, count);
+            Arrays.fill(elements, Math.max(gapEnd, offset), gapEnd + count, null);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    /**
+     * Makes room for at least the specified number of elements in the gap, plus some slack.
+     */
+    private void grow(int needed) {
+        int count = elements.length - (gapEnd - gapStart);
+        JsonNode[] grown = new JsonNode[count + needed + Math.max(MIN_SLACK, (count + needed) / 4) + (gapEnd - gapStart)];
+        int tail = elements.length - gapEnd;
+        System.arraycopy(elements, 0, grown, 0, gapStart);
+        System.arraycopy(elements, gapEnd, grown, grown.length - tail, tail);
+        gapEnd = grown.length - tail;
+        elements = grown;
+    }
+}
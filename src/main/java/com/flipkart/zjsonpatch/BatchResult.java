@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The outcome of applying a patch to a batch of documents with
+ * {@link CompiledJsonPatch#applyAll(java.util.Collection, java.util.concurrent.Executor)}: a patched copy
+ * of each document the patch could be applied to, and the reason it couldn't for each of the others.
+ *
+ * @since 0.4.12
+ */
+public final class BatchResult {
+    private final List<JsonNode> results;
+    private final SortedMap<Integer, Throwable> failures;
+
+    BatchResult(JsonNode[] results, Throwable[] failures) {
+        SortedMap<Integer, Throwable> failuresByIndex = new TreeMap<Integer, Throwable>();
+        for (int i = 0; i < failures.length; i++)
+            if (failures[i] != null)
+                failuresByIndex.put(i, failures[i]);
+        this.results = Collections.unmodifiableList(Arrays.asList(results));
+        this.failures = Collections.unmodifiableSortedMap(failuresByIndex);
+    }
+
+    /**
+     * Returns the patched documents, in the order of the batch, with {@code null} in place of the documents
+     * the patch couldn't be applied to.
+     */
+    public List<JsonNode> getResults() {
+        return results;
+    }
+
+    /**
+     * Returns the exceptions raised while applying the patch, by position of the document in the batch.
+     * These are usually {@link JsonPatchApplicationException}s, but may be any runtime exception raised
+     * while patching the document, or a {@link StackOverflowError}.
+     */
+    public SortedMap<Integer, Throwable> getFailures() {
+        return failures;
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+}
@@ -24,7 +24,15 @@ import java.util.EnumSet;
 public enum CompatibilityFlags {
     MISSING_VALUES_AS_NULLS,
     REMOVE_NONE_EXISTING_ARRAY_ELEMENT,
-    ALLOW_MISSING_TARGET_OBJECT_ON_REPLACE;
+    ALLOW_MISSING_TARGET_OBJECT_ON_REPLACE,
+    /**
+     * Hands the patch over to the library: the values of "add" and "replace" operations are inserted into
+     * the document as they are, rather than copied first, which saves allocating them twice. The patch
+     * must not be used or modified afterwards, since parts of it may now belong to the document.
+     *
+     * @since 0.4.12
+     */
+    TRANSFER_PATCH_OWNERSHIP;
 
     public static EnumSet<CompatibilityFlags> defaults() {
         return EnumSet.noneOf(CompatibilityFlags.class);
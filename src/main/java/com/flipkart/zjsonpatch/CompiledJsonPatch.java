@@ -0,0 +1,304 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A JSON patch that has been validated and parsed once, to be applied to any number of documents.
+ *
+ * <pre>
+ *      CompiledJsonPatch compiled = JsonPatch.compile(patch);
+ *      for (JsonNode document : documents)
+ *          compiled.applyInPlace(document);
+ * </pre>
+ *
+ * <p>Compiling takes care of everything that doesn't depend on the document: checking the structure of
+ * the patch, resolving operation names, parsing pointers and taking a private copy of the values (or, with
+ * {@link CompatibilityFlags#TRANSFER_PATCH_OWNERSHIP}, taking over the values of the patch). Instances are
+ * immutable and may be shared between threads.
+ *
+ * <p>Applying a compiled patch has the same effect as {@link JsonPatch#apply} and
+ * {@link JsonPatch#applyInPlace} with the flags the patch was compiled with. Values added to a document
+ * are still copied if they are arrays or objects, since the document may be modified afterwards; scalar
+ * values are immutable and are shared.
+ *
+ * @since 0.4.12
+ */
+public final class CompiledJsonPatch {
+    private final Step[] steps;
+    private final EnumSet<CompatibilityFlags> flags;
+
+    private CompiledJsonPatch(Step[] steps, EnumSet<CompatibilityFlags> flags) {
+        this.steps = steps;
+        this.flags = flags;
+    }
+
+    static CompiledJsonPatch compile(JsonNode patch, EnumSet<CompatibilityFlags> flags) throws InvalidJsonPatchException {
+        Recorder recorder = new Recorder(!flags.contains(CompatibilityFlags.TRANSFER_PATCH_OWNERSHIP));
+        JsonPatch.process(patch, recorder, flags, null);
+        return new CompiledJsonPatch(recorder.steps.toArray(new Step[0]), flags.clone());
+    }
+
+    /**
+     * Applies this patch to a copy of the specified document.
+     *
+     * @return The patched copy; the specified document is left unmodified.
+     * @throws JsonPatchApplicationException The patch can't be applied to the specified document.
+     */
+    public JsonNode apply(JsonNode source) throws JsonPatchApplicationException {
+        CopyingApplyProcessor processor = new CopyingApplyProcessor(source, flags);
+        process(processor);
+        return processor.result();
+    }
+
+    /**
+     * Applies this patch without modifying the specified document, copying only the objects and arrays on
+     * the way to each modified node; the result shares everything else with the source document.
+     *
+     * @see JsonPatch#applyCopyOnWrite(JsonNode, JsonNode, EnumSet)
+     * @throws JsonPatchApplicationException The patch can't be applied to the specified document.
+     */
+    public JsonNode applyCopyOnWrite(JsonNode source) throws JsonPatchApplicationException {
+        CopyOnWriteApplyProcessor processor = new CopyOnWriteApplyProcessor(source, flags);
+        process(processor);
+        return processor.result();
+    }
+
+    /**
+     * Applies this patch to the specified document, modifying it.
+     *
+     * @throws JsonPatchApplicationException The patch can't be applied to the specified document.
+     */
+    public void applyInPlace(JsonNode source) throws JsonPatchApplicationException {
+        process(new InPlaceApplyProcessor(source, flags));
+    }
+
+    /**
+     * Applies this patch to the document of the specified index, modifying it, through the index.
+     *
+     * @see JsonPatch#applyInPlace(JsonNode, PathIndex, EnumSet)
+     * @throws JsonPatchApplicationException The patch can't be applied to the document.
+     */
+    public void applyInPlace(PathIndex index) throws JsonPatchApplicationException {
+        process(new InPlaceApplyProcessor(index, flags));
+    }
+
+    /**
+     * Applies this patch to the specified document, modifying it, as a whole or not at all: if an operation
+     * fails, the modifications made by the preceding ones are reverted before the exception is thrown.
+     *
+     * @see JsonPatch#applyInPlaceAtomically(JsonNode, JsonNode, EnumSet)
+     * @throws JsonPatchApplicationException The patch can't be applied to the specified document.
+     */
+    public void applyInPlaceAtomically(JsonNode source) throws JsonPatchApplicationException {
+        InPlaceApplyProcessor processor = new InPlaceApplyProcessor(source, flags);
+        processor.beginTransaction();
+        boolean applied = false;
+        try {
+            process(processor);
+            applied = true;
+        } finally {
+            // Errors too, e.g. a stack overflow on a deeply nested value
+            if (!applied)
+                processor.rollback();
+        }
+    }
+
+    /**
+     * Applies this patch to the specified document, modifying it, and returns the patch undoing it.
+     *
+     * @see JsonPatch#applyInPlaceAndInvert(JsonNode, JsonNode, EnumSet)
+     * @throws JsonPatchApplicationException The patch can't be applied to the specified document.
+     */
+    public JsonNode applyInPlaceAndInvert(JsonNode source) throws JsonPatchApplicationException {
+        InPlaceApplyProcessor processor = new InPlaceApplyProcessor(source, flags);
+        processor.recordInverse();
+        process(processor);
+        return processor.inverse();
+    }
+
+    /**
+     * Applies this patch to a copy of each of the specified documents, in parallel.
+     *
+     * <p>The documents are split into a few chunks per available processor, each of which is submitted to
+     * the specified executor as a single task (any {@link Executor} will do, e.g. a thread pool or, where
+     * available, a fork/join pool). A document the patch can't be applied to doesn't affect the others;
+     * its failure, which may be a {@link StackOverflowError}, is reported in the result instead. Any other
+     * {@link Error} is thrown by this method once all tasks are done. The documents themselves are left
+     * unmodified, and must not be modified until this method returns.
+     *
+     * @param documents The documents to patch.
+     * @param executor  The executor to run the work on.
+     * @return The patched documents and the failures, by position in {@code documents}.
+     * @throws InterruptedException The calling thread was interrupted while waiting for the tasks to finish.
+     * @throws java.util.concurrent.RejectedExecutionException The executor didn't accept a task; tasks already
+     *         accepted may still be running.
+     */
+    public BatchResult applyAll(Collection<? extends JsonNode> documents, Executor executor) throws InterruptedException {
+        final JsonNode[] sources = documents.toArray(new JsonNode[0]);
+        final JsonNode[] results = new JsonNode[sources.length];
+        final Throwable[] failures = new Throwable[sources.length];
+        final AtomicReference<Error> error = new AtomicReference<Error>();
+
+        int chunks = Math.min(sources.length, 4 * Runtime.getRuntime().availableProcessors());
+        final CountDownLatch done = new CountDownLatch(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            final int from = (int) ((long) sources.length * chunk / chunks);
+            final int to = (int) ((long) sources.length * (chunk + 1) / chunks);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = from; i < to; i++) {
+                            try {
+                                results[i] = apply(sources[i]);
+                            } catch (RuntimeException e) {
+                                failures[i] = e;
+                            } catch (StackOverflowError e) {
+                                failures[i] = e;    // e.g. a deeply nested document
+                            }
+                        }
+                    } catch (Error e) {
+                        // Anything else, e.g. running out of memory, isn't the document's fault and leaves
+                        // the rest of the batch unpatched, so it's thrown to the caller as well
+                        error.compareAndSet(null, e);
+                        throw e;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        // The latch also makes the tasks' writes to the arrays visible to this thread
+        done.await();
+        if (error.get() != null)
+            throw error.get();
+        return new BatchResult(results, failures);
+    }
+
+    /** Returns the number of operations in this patch. */
+    public int size() {
+        return steps.length;
+    }
+
+    private void process(JsonPatchProcessor processor) {
+        try {
+            for (Step step : steps) {
+                try {
+                    step.applyTo(processor);
+                } catch (JsonPointerEvaluationException e) {
+                    throw new JsonPatchApplicationException(e.getMessage(), step.operation, e.getPath());
+                }
+            }
+        } finally {
+            processor.finish();
+        }
+    }
+
+    private static final class Step {
+        private final Operation operation;
+        private final JsonPointer path;
+        private final JsonPointer fromPath;
+        private final JsonNode value;
+
+        Step(Operation operation, JsonPointer path, JsonPointer fromPath, JsonNode value) {
+            this.operation = operation;
+            this.path = path;
+            this.fromPath = fromPath;
+            this.value = value;
+        }
+
+        void applyTo(JsonPatchProcessor processor) throws JsonPointerEvaluationException {
+            switch (operation) {
+                case REMOVE:
+                    processor.remove(path);
+                    break;
+                case ADD:
+                    processor.add(path, value.deepCopy());
+                    break;
+                case REPLACE:
+                    processor.replace(path, value.deepCopy());
+                    break;
+                case MOVE:
+                    processor.move(fromPath, path);
+                    break;
+                case COPY:
+                    processor.copy(fromPath, path);
+                    break;
+                case TEST:
+                    processor.test(path, value);    // only compared, never stored
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Collects the operations of a patch as it's processed, instead of applying them.
+     */
+    private static final class Recorder implements JsonPatchProcessor {
+        private final List<Step> steps = new ArrayList<Step>();
+        private final boolean copyTestValues;
+
+        Recorder(boolean copyTestValues) {
+            this.copyTestValues = copyTestValues;
+        }
+
+        @Override
+        public void remove(JsonPointer path) {
+            steps.add(new Step(Operation.REMOVE, path, null, null));
+        }
+
+        @Override
+        public void replace(JsonPointer path, JsonNode value) {
+            steps.add(new Step(Operation.REPLACE, path, null, value));
+        }
+
+        @Override
+        public void add(JsonPointer path, JsonNode value) {
+            steps.add(new Step(Operation.ADD, path, null, value));
+        }
+
+        @Override
+        public void move(JsonPointer fromPath, JsonPointer toPath) {
+            steps.add(new Step(Operation.MOVE, toPath, fromPath, null));
+        }
+
+        @Override
+        public void copy(JsonPointer fromPath, JsonPointer toPath) {
+            steps.add(new Step(Operation.COPY, toPath, fromPath, null));
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        @Override
+        public void test(JsonPointer path, JsonNode value) {
+            // Unlike the other values, these are passed on uncopied
+            steps.add(new Step(Operation.TEST, path, null, copyTestValues ? value.deepCopy() : value));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies a patch without modifying the source document, by copying only the containers on the way to
+ * each node that is modified. Everything else is shared between the source and the result, so the cost
+ * is proportional to the patch rather than to the document.
+ *
+ * <p>Containers copied by this processor are owned by the result and are modified in place by subsequent
+ * operations; all other containers are copied (shallowly) before being modified.
+ */
+class CopyOnWriteApplyProcessor extends InPlaceApplyProcessor {
+    private final Set<JsonNode> owned = Collections.newSetFromMap(new IdentityHashMap<JsonNode, Boolean>());
+
+    CopyOnWriteApplyProcessor(JsonNode target, EnumSet<CompatibilityFlags> flags) {
+        super(target, flags);
+    }
+
+    @Override
+    JsonNode resolve(JsonPointer path) throws JsonPointerEvaluationException {
+        // Containers on the way to modified nodes are replaced by copies, so nothing may be cached
+        return path.evaluate(target);
+    }
+
+    @Override
+    JsonNode resolveForUpdate(JsonPointer path) throws JsonPointerEvaluationException {
+        // Evaluate first, so that errors are reported exactly as without copying
+        JsonNode resolved = path.evaluate(target);
+        if (!resolved.isContainerNode() || owned.contains(resolved))
+            return resolved;
+
+        target = own(target);
+        JsonNode current = target;
+        for (JsonPointer.RefToken token : path.decompose()) {
+            if (current.isArray()) {
+                JsonNode child = own(current.get(token.getIndex()));
+                ((ArrayNode) current).set(token.getIndex(), child);
+                current = child;
+            } else {
+                JsonNode child = own(current.get(token.getField()));
+                ((ObjectNode) current).set(token.getField(), child);
+                current = child;
+            }
+        }
+        return current;
+    }
+
+    @Override
+    JsonNode copyOf(JsonNode value) {
+        // Containers that aren't owned are never modified, so they may just as well appear twice; owned
+        // ones would be modified in both places at once
+        return owned.contains(value) ? value.deepCopy() : value;
+    }
+
+    private JsonNode own(JsonNode node) {
+        if (!node.isContainerNode() || owned.contains(node))
+            return node;
+
+        JsonNode copy;
+        if (node.isArray()) {
+            ArrayNode array = ((ArrayNode) node).arrayNode();
+            for (int i = 0; i < node.size(); i++)
+                array.add(node.get(i));
+            copy = array;
+        } else {
+            ObjectNode object = ((ObjectNode) node).objectNode();
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                object.set(field.getKey(), field.getValue());
+            }
+            copy = object;
+        }
+        owned.add(copy);
+        return copy;
+    }
+}
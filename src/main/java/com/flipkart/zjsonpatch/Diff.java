@@ -19,20 +19,28 @@ package com.flipkart.zjsonpatch;
 import com.fasterxml.jackson.databind.JsonNode;
 
 /**
- * User: gopi.vishwakarma
+ * A single operation of a patch computed by {@link JsonDiff}, in typed form.
+ *
+ * <p>For {@link Operation#MOVE} and {@link Operation#COPY}, {@link #getPath()} is the location the value
+ * is taken from and {@link #getToPath()} the location it ends up at; for every other operation,
+ * {@link #getPath()} is the location the operation applies to. Values are shared with the documents the
+ * diff was computed from, and must not be modified.
+ *
+ * <p>User: gopi.vishwakarma
  * Date: 30/07/14
  */
-class Diff {
+public final class Diff {
     private final Operation operation;
     private final JsonPointer path;
     private final JsonNode value;
-    private JsonPointer toPath; //only to be used in move operation
+    private final JsonPointer toPath; //only to be used in move operation
     private final JsonNode srcValue; // only used in replace operation
 
     Diff(Operation operation, JsonPointer path, JsonNode value) {
         this.operation = operation;
         this.path = path;
         this.value = value;
+        this.toPath = null;
         this.srcValue = null;
     }
 
@@ -47,6 +55,7 @@ class Diff {
     Diff(Operation operation, JsonPointer path, JsonNode srcValue, JsonNode value) {
         this.operation = operation;
         this.path = path;
+        this.toPath = null;
         this.value = value;
         this.srcValue = srcValue;
     }
@@ -55,26 +64,39 @@ class Diff {
         return operation;
     }
 
+    /**
+     * Returns the location this operation applies to, or for moves and copies, the location of the value
+     * taken.
+     */
     public JsonPointer getPath() {
         return path;
     }
 
+    /**
+     * Returns the value added, removed, tested or replaced with, or {@code null} for moves and copies.
+     */
     public JsonNode getValue() {
         return value;
     }
 
-    public static Diff generateDiff(Operation replace, JsonPointer path, JsonNode target) {
+    static Diff generateDiff(Operation replace, JsonPointer path, JsonNode target) {
         return new Diff(replace, path, target);
     }
     
-    public static Diff generateDiff(Operation replace, JsonPointer path, JsonNode source, JsonNode target) {
+    static Diff generateDiff(Operation replace, JsonPointer path, JsonNode source, JsonNode target) {
         return new Diff(replace, path, source, target);
     }
 
-    JsonPointer getToPath() {
+    /**
+     * Returns the destination of a move or copy, or {@code null} for other operations.
+     */
+    public JsonPointer getToPath() {
         return toPath;
     }
     
+    /**
+     * Returns the value replaced by a replace operation, or {@code null} for other operations.
+     */
     public JsonNode getSrcValue(){
         return srcValue;
     }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tuning options for {@link JsonDiff} that, unlike {@link DiffFlags}, carry a value.
+ *
+ * <pre>
+ *      DiffOptions options = DiffOptions.defaults().withLinearSpaceThreshold(100000);
+ *      JsonNode patch = JsonDiff.asJson(source, target, DiffFlags.defaults(), options);
+ * </pre>
+ *
+ * <p>{@link JsonDiff} takes a copy of the options it is given, so an instance may be safely
+ * modified or reused once a diff has been started.
+ *
+ * @since 0.4.12
+ */
+public final class DiffOptions implements Cloneable {
+
+    /**
+     * The default value for {@link #withLinearSpaceThreshold(long)}; arrays up to roughly 2000
+     * elements each are compared with the faster algorithm.
+     */
+    public static final long DEFAULT_LINEAR_SPACE_THRESHOLD = 4000000L;
+
+    private long linearSpaceThreshold = DEFAULT_LINEAR_SPACE_THRESHOLD;
+    private Map<JsonPointer, String> arrayKeys = new HashMap<JsonPointer, String>();
+    private Set<JsonPointer> unorderedArrays = new HashSet<JsonPointer>();
+
+    public static DiffOptions defaults() {
+        return new DiffOptions();
+    }
+
+    /**
+     * Sets the size above which arrays are compared with a linear-space LCS algorithm.
+     *
+     * <p>The size of an array comparison is the product of the two array lengths (the number of
+     * cells in the edit graph). Below the threshold, the faster algorithm is used, whose memory
+     * usage grows with the square of the number of differing elements; above it, memory usage is
+     * linear in the array lengths but roughly twice as many element comparisons are performed.
+     * Both produce a minimal diff, but not necessarily the same one when there are several equally
+     * short ones, so the same two arrays may be diffed differently on either side of the threshold.
+     *
+     * @param cells The threshold, as a number of edit graph cells. Use {@code 0} to always use the
+     *              linear-space algorithm, or {@link Long#MAX_VALUE} to never use it.
+     * @return This instance.
+     */
+    public DiffOptions withLinearSpaceThreshold(long cells) {
+        if (cells < 0) throw new IllegalArgumentException("Threshold can't be negative");
+        this.linearSpaceThreshold = cells;
+        return this;
+    }
+
+    public long getLinearSpaceThreshold() {
+        return linearSpaceThreshold;
+    }
+
+    /**
+     * Declares the array at the specified location to be a list of entities identified by a key field.
+     *
+     * <p>Instead of aligning such an array by its longest common subsequence, elements are matched by
+     * the value of their key field: entities whose key disappeared are removed, entities with a new key
+     * are added, entities that changed position are moved, and the remaining differences between
+     * matched entities are emitted as nested, field-level diffs. Matching takes linear time.
+     *
+     * <p>If an element of either array isn't an object, lacks the key field or shares its key with
+     * another element of the same array, the array is diffed as usual.
+     *
+     * @param arrayPath A JSON pointer to the array, e.g. {@code "/users"}. Array elements along the way are
+     *                  referenced by their index in the target document.
+     * @param keyField  The name of the field identifying each element, e.g. {@code "id"}.
+     * @return This instance.
+     * @throws IllegalArgumentException The specified array path isn't a valid JSON pointer.
+     */
+    public DiffOptions withArrayKey(String arrayPath, String keyField) throws IllegalArgumentException {
+        if (keyField == null) throw new IllegalArgumentException("Key field can't be null");
+        arrayKeys.put(JsonPointer.parse(arrayPath), keyField);
+        return this;
+    }
+
+    /**
+     * Returns the key field declared for the array at the specified location, or {@code null} if none was.
+     */
+    String getArrayKey(JsonPointer arrayPath) {
+        return arrayKeys.get(arrayPath);
+    }
+
+    /**
+     * Declares the array at the specified location to be an unordered collection, such as a set of tags.
+     *
+     * <p>Such arrays are diffed by multiset difference in linear time: elements that occur more often in
+     * the source are removed, elements that occur more often in the target are added at the end, and a
+     * mere change of order produces no diffs at all. Consequently, applying the patch yields an array with
+     * the same elements as the target, but not necessarily in the same order.
+     *
+     * <p>If the array also has a {@link #withArrayKey(String, String) key field}, matching by key takes
+     * precedence.
+     *
+     * @param arrayPath A JSON pointer to the array, e.g. {@code "/tags"}. Array elements along the way are
+     *                  referenced by their index in the target document.
+     * @return This instance.
+     * @throws IllegalArgumentException The specified array path isn't a valid JSON pointer.
+     */
+    public DiffOptions withUnorderedArray(String arrayPath) throws IllegalArgumentException {
+        unorderedArrays.add(JsonPointer.parse(arrayPath));
+        return this;
+    }
+
+    /**
+     * Determines whether the array at the specified location was declared unordered.
+     */
+    boolean isUnorderedArray(JsonPointer arrayPath) {
+        return unorderedArrays.contains(arrayPath);
+    }
+
+    @Override
+    public DiffOptions clone() {
+        try {
+            DiffOptions clone = (DiffOptions) super.clone();
+            clone.arrayKeys = new HashMap<JsonPointer, String>(arrayKeys);
+            clone.unorderedArrays = new HashSet<JsonPointer>(unorderedArrays);
+            return clone;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+/**
+ * A Fenwick (binary indexed) tree over a fixed number of integer slots, supporting point updates and
+ * range sums in O(log n).
+ */
+final class FenwickTree {
+    private final int[] tree;
+
+    /**
+     * Creates a tree of the specified size with all slots set to zero.
+     */
+    FenwickTree(int size) {
+        this.tree = new int[size + 1];
+    }
+
+    /**
+     * Creates a tree holding the specified values, in O(n).
+     */
+    FenwickTree(int[] values) {
+        this.tree = new int[values.length + 1];
+        for (int i = 1; i < tree.length; i++) {
+            tree[i] += values[i - 1];
+            int parent = i + (i & -i);
+            if (parent < tree.length)
+                tree[parent] += tree[i];
+        }
+    }
+
+    int size() {
+        return tree.length - 1;
+    }
+
+    /**
+     * Adds {@code delta} to the slot at the specified index.
+     */
+    void add(int index, int delta) {
+        for (int i = index + 1; i < tree.length; i += i & -i)
+            tree[i] += delta;
+    }
+
+    /**
+     * Returns the sum of the slots before the specified index (exclusive).
+     */
+    int prefixSum(int index) {
+        int sum = 0;
+        for (int i = index; i > 0; i -= i & -i)
+            sum += tree[i];
+        return sum;
+    }
+
+    /**
+     * Returns the sum of the slots between {@code fromIndex} (inclusive) and {@code toIndex} (exclusive).
+     */
+    int sum(int fromIndex, int toIndex) {
+        return prefixSum(toIndex) - prefixSum(fromIndex);
+    }
+}
@@ -23,9 +23,22 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.util.EnumSet;
 
 class InPlaceApplyProcessor implements JsonPatchProcessor {
+    // Edits shifting the elements of an array before later edits to it are batched; a batch copies the
+    // elements from the first one edited, which only pays off over several such edits
+    private static final int BATCH_THRESHOLD = 4;
 
-    private JsonNode target;
+    JsonNode target;
     private EnumSet<CompatibilityFlags> flags;
+    private UndoLog undoLog;
+    private InversePatchBuilder inverse;
+    private final ResolvedNodeCache resolved;
+    private final PathIndex index;      // null unless applying through an index
+    // The array modified by the last operation, how many edits to it shifted its elements, and the edits
+    // to it not written back yet, if any
+    private JsonPointer lastArrayPath;
+    private ArrayNode lastArray;
+    private int shiftingEdits;
+    private ArrayBatch batch;
 
     InPlaceApplyProcessor(JsonNode target) {
         this(target, CompatibilityFlags.defaults());
@@ -34,24 +47,124 @@ class InPlaceApplyProcessor implements JsonPatchProcessor {
     InPlaceApplyProcessor(JsonNode target, EnumSet<CompatibilityFlags> flags) {
         this.target = target;
         this.flags = flags;
+        this.resolved = new ResolvedNodeCache(false);
+        this.index = null;
+    }
+
+    /**
+     * Creates a processor modifying the document of the specified index, resolving pointers through the
+     * index and keeping it up to date.
+     */
+    InPlaceApplyProcessor(PathIndex index, EnumSet<CompatibilityFlags> flags) {
+        this.target = index.getDocument();
+        this.flags = flags;
+        this.resolved = index.nodes;
+        this.index = index;
     }
 
     public JsonNode result() {
+        flush();
         return target;
     }
 
+    @Override
+    public void finish() {
+        flush();
+        if (index != null)
+            index.setDocument(target);
+    }
+
+    /**
+     * Starts recording the prior state of every node modified from now on, so that the modifications can
+     * be reverted with {@link #rollback()}.
+     */
+    void beginTransaction() {
+        undoLog = new UndoLog(target);
+    }
+
+    /**
+     * Reverts all modifications made since {@link #beginTransaction()} was called.
+     */
+    void rollback() {
+        target = undoLog.rollback();
+        undoLog = null;
+        resolved.clear();
+    }
+
+    /**
+     * Starts recording the operations undoing each operation applied from now on; see {@link #inverse()}.
+     */
+    void recordInverse() {
+        inverse = new InversePatchBuilder();
+    }
+
+    /**
+     * Returns a patch undoing all operations applied since {@link #recordInverse()} was called.
+     */
+    JsonNode inverse() {
+        return inverse.build();
+    }
+
     @Override
     public void move(JsonPointer fromPath, JsonPointer toPath) throws JsonPointerEvaluationException {
-        JsonNode valueNode = fromPath.evaluate(target);
-        remove(fromPath);
-        set(toPath, valueNode, Operation.MOVE);
+        ArrayBatch edits = batchFor(toPath, true);
+        if (edits != null && !fromPath.isRoot() && fromPath.last().isArrayIndex() && fromPath.getParent().equals(edits.path)) {
+            int from = fromPath.last().getIndex();
+            int to = toPath.last().getIndex() == JsonPointer.LAST_INDEX ? edits.size() - 1 : toPath.last().getIndex();
+            if (from >= 0 && from < edits.size() && to >= 0 && to < edits.size()) {
+                ResolvedNodeCache.Entry moved = resolved.detach(fromPath);
+                JsonNode valueNode = edits.remove(from);
+                resolved.elementRemoved(edits.path, from);
+                edits.insert(to, valueNode);
+                resolved.elementInserted(edits.path, to);
+                if (moved != null)
+                    resolved.attach(edits.path.append(to), moved);
+                if (undoLog != null) {
+                    undoLog.elementRemoved(edits.array, from, valueNode);
+                    undoLog.elementInserted(edits.array, to);
+                }
+                if (inverse != null)
+                    inverse.move(edits.path.append(to), fromPath);
+                return;
+            }
+        }
+
+        flush();
+        JsonNode valueNode = resolve(fromPath);
+        ResolvedNodeCache.Entry moved = resolved.detach(fromPath);
+        removeValue(fromPath);
+        JsonNode displaced = set(toPath, valueNode, Operation.MOVE);
+        if (moved != null)
+            resolved.attach(toPath.isRoot() ? toPath : resolveAppended(toPath), moved);
+        if (inverse != null) {
+            if (displaced != null) {
+                // Moving the value back wouldn't work: the displaced value may have contained its source
+                // (e.g. when moving to the root or an ancestor), or removing the source may have shifted the
+                // location the value was moved to. The displaced value is put back instead, and the moved
+                // value added back at its source, as it was when moved
+                inverse.add(fromPath, valueNode.deepCopy());
+                inverse.replace(toPath, displaced);
+            } else {
+                inverse.move(resolveAppended(toPath), fromPath);
+            }
+        }
     }
 
     @Override
     public void copy(JsonPointer fromPath, JsonPointer toPath) throws JsonPointerEvaluationException {
-        JsonNode valueNode = fromPath.evaluate(target);
-        JsonNode valueToCopy = valueNode != null ? valueNode.deepCopy() : null;
-        set(toPath, valueToCopy, Operation.COPY);
+        JsonNode valueNode = batchedElement(fromPath);
+        if (valueNode == null) {
+            flush();
+            valueNode = resolve(fromPath);
+        }
+        JsonNode valueToCopy = valueNode != null ? copyOf(valueNode) : null;
+        if (insertBatched(toPath, valueToCopy))
+            return;
+
+        flush();
+        JsonNode displaced = set(toPath, valueToCopy, Operation.COPY);
+        if (inverse != null)
+            recordInverseOfSet(toPath, displaced);
     }
 
     private static String show(JsonNode value) {
@@ -67,7 +180,11 @@ class InPlaceApplyProcessor implements JsonPatchProcessor {
 
     @Override
     public void test(JsonPointer path, JsonNode value) throws JsonPointerEvaluationException {
-        JsonNode valueNode = path.evaluate(target);
+        JsonNode valueNode = batchedElement(path);
+        if (valueNode == null) {
+            flush();
+            valueNode = resolve(path);
+        }
         if (!valueNode.equals(value))
             throw new JsonPatchApplicationException(
                     "Expected " + show(value) + " but found " + show(valueNode), Operation.TEST, path);
@@ -75,76 +192,279 @@ class InPlaceApplyProcessor implements JsonPatchProcessor {
 
     @Override
     public void add(JsonPointer path, JsonNode value) throws JsonPointerEvaluationException {
-        set(path, value, Operation.ADD);
+        if (insertBatched(path, value))
+            return;
+
+        flush();
+        JsonNode displaced = set(path, value, Operation.ADD);
+        if (inverse != null)
+            recordInverseOfSet(path, displaced);
     }
 
     @Override
     public void replace(JsonPointer path, JsonNode value) throws JsonPointerEvaluationException {
+        ArrayBatch edits = batchFor(path, false);
+        if (edits != null) {
+            int index = path.last().getIndex();
+            if (index >= 0 && index < edits.size()) {
+                JsonNode previous = edits.set(index, value);
+                resolved.childReplaced(edits.path, path.last());
+                if (undoLog != null)
+                    undoLog.elementSet(edits.array, index, previous);
+                if (inverse != null)
+                    inverse.replace(path, previous);
+                return;
+            }
+        }
+
+        flush();
+        JsonNode previous = replaceValue(path, value);
+        if (inverse != null) {
+            if (previous != null)
+                inverse.replace(path, previous);
+            else
+                inverse.remove(path);   // a missing field, only replaced with ALLOW_MISSING_TARGET_OBJECT_ON_REPLACE
+        }
+    }
+
+    @Override
+    public void remove(JsonPointer path) throws JsonPointerEvaluationException {
+        ArrayBatch edits = batchFor(path, true);
+        if (edits != null) {
+            int index = path.last().getIndex();
+            if (index >= 0 && index < edits.size()) {
+                JsonNode removed = edits.remove(index);
+                resolved.elementRemoved(edits.path, index);
+                if (undoLog != null)
+                    undoLog.elementRemoved(edits.array, index, removed);
+                if (inverse != null)
+                    inverse.add(path, removed);
+                return;
+            }
+        }
+
+        flush();
+        JsonNode removed = removeValue(path);
+        if (inverse != null && removed != null)
+            inverse.add(path, removed);
+    }
+
+    /**
+     * Inserts the specified value through the batch of edits of its array, if it's batched.
+     *
+     * @return Whether the value was inserted.
+     */
+    private boolean insertBatched(JsonPointer path, JsonNode value) {
+        ArrayBatch edits = batchFor(path, true);
+        if (edits == null)
+            return false;
+        int index = path.last().getIndex() == JsonPointer.LAST_INDEX ? edits.size() : path.last().getIndex();
+        if (index < 0 || index > edits.size())
+            return false;
+        edits.insert(index, value);
+        resolved.elementInserted(edits.path, index);
+        if (undoLog != null)
+            undoLog.elementInserted(edits.array, index);
+        if (inverse != null)
+            inverse.remove(edits.path.append(index));
+        return true;
+    }
+
+    /**
+     * Returns the element at the specified location if it's an element of the array being batched, so that
+     * reading it doesn't require writing the batch back, or {@code null} otherwise.
+     */
+    private JsonNode batchedElement(JsonPointer path) {
+        ArrayBatch edits = batchFor(path, false);
+        if (edits == null)
+            return null;
+        int index = path.last().getIndex();
+        return index >= 0 && index < edits.size() ? edits.get(index) : null;
+    }
+
+    /**
+     * Returns the batch to edit the specified array element through, if it's an element of the array
+     * modified by the last operation. A batch is only started for operations that may shift elements, and
+     * only once enough edits to the array did. Anything out of the ordinary, including errors, is left to
+     * the regular implementation of each operation, once the batch has been written back.
+     */
+    private ArrayBatch batchFor(JsonPointer path, boolean start) {
+        if (path.isRoot() || !path.last().isArrayIndex())
+            return null;
+        JsonPointer parent = path.getParent();
+        if (batch != null)
+            return batch.path.equals(parent) ? batch : null;
+        if (start && lastArray != null && shiftingEdits >= BATCH_THRESHOLD && lastArrayPath.equals(parent)) {
+            int index = path.last().getIndex();
+            batch = new ArrayBatch(parent, lastArray, index == JsonPointer.LAST_INDEX ? lastArray.size() : index);
+        }
+        return batch;
+    }
+
+    private void flush() {
+        if (batch != null) {
+            batch.flush();
+            batch = null;
+        }
+    }
+
+    private void modifying() {
+        if (lastArray == null)
+            shiftingEdits = 0;  // the last operation modified something other than an array
+        lastArray = null;
+    }
+
+    private void modifiedArray(JsonPointer path, ArrayNode array, boolean shifted) {
+        if (!path.equals(lastArrayPath))
+            shiftingEdits = 0;
+        if (shifted)
+            shiftingEdits++;
+        lastArrayPath = path;
+        lastArray = array;
+    }
+
+    private void recordInverseOfSet(JsonPointer path, JsonNode displaced) throws JsonPointerEvaluationException {
+        if (displaced != null)
+            inverse.replace(path, displaced);
+        else
+            inverse.remove(resolveAppended(path));
+    }
+
+    /**
+     * Replaces a reference past the end of an array, i.e. one to which a value was just appended, with
+     * the index of that value, which the inverse operations need to refer to it.
+     */
+    private JsonPointer resolveAppended(JsonPointer path) throws JsonPointerEvaluationException {
+        JsonPointer.RefToken token = path.last();
+        if (!token.isArrayIndex() || token.getIndex() != JsonPointer.LAST_INDEX)
+            return path;
+        JsonNode parentNode = resolve(path.getParent());
+        return parentNode.isArray() ? path.getParent().append(parentNode.size() - 1) : path;
+    }
+
+    private JsonNode replaceValue(JsonPointer path, JsonNode value) throws JsonPointerEvaluationException {
+        modifying();
         if (path.isRoot()) {
+            JsonNode previous = target;
             target = value;
-            return;
+            resolved.clear();
+            return previous;
         }
 
-        JsonNode parentNode = path.getParent().evaluate(target);
+        JsonNode parentNode = resolveForUpdate(path.getParent());
         JsonPointer.RefToken token = path.last();
         if (parentNode.isObject()) {
             if (!flags.contains(CompatibilityFlags.ALLOW_MISSING_TARGET_OBJECT_ON_REPLACE) &&
                     !parentNode.has(token.getField()))
                 throw new JsonPatchApplicationException(
                         "Missing field \"" + token.getField() + "\"", Operation.REPLACE, path.getParent());
-            ((ObjectNode) parentNode).replace(token.getField(), value);
+            JsonNode previous = ((ObjectNode) parentNode).replace(token.getField(), value);
+            resolved.childReplaced(path.getParent(), token);
+            if (undoLog != null)
+                undoLog.fieldSet((ObjectNode) parentNode, token.getField(), previous);
+            return previous;
         } else if (parentNode.isArray()) {
             if (token.getIndex() >= parentNode.size())
                 throw new JsonPatchApplicationException(
                         "Array index " + token.getIndex() + " out of bounds", Operation.REPLACE, path.getParent());
-            ((ArrayNode) parentNode).set(token.getIndex(), value);
+            JsonNode previous = ((ArrayNode) parentNode).set(token.getIndex(), value);
+            resolved.childReplaced(path.getParent(), token);
+            if (undoLog != null)
+                undoLog.elementSet((ArrayNode) parentNode, token.getIndex(), previous);
+            modifiedArray(path.getParent(), (ArrayNode) parentNode, false);
+            return previous;
         } else {
             throw new JsonPatchApplicationException(
                     "Can't reference past scalar value", Operation.REPLACE, path.getParent());
         }
     }
 
-    @Override
-    public void remove(JsonPointer path) throws JsonPointerEvaluationException {
+    private JsonNode removeValue(JsonPointer path) throws JsonPointerEvaluationException {
+        modifying();
         if (path.isRoot())
             throw new JsonPatchApplicationException("Cannot remove document root", Operation.REMOVE, path);
 
-        JsonNode parentNode = path.getParent().evaluate(target);
+        JsonNode parentNode = resolveForUpdate(path.getParent());
         JsonPointer.RefToken token = path.last();
-        if (parentNode.isObject())
+        if (parentNode.isObject()) {
+            JsonNode previous = parentNode.get(token.getField());
+            if (undoLog != null && previous != null)
+                undoLog.fieldRemoving((ObjectNode) parentNode, token.getField(), previous);
             ((ObjectNode) parentNode).remove(token.getField());
-        else if (parentNode.isArray()) {
+            resolved.childReplaced(path.getParent(), token);
+            return previous;
+        } else if (parentNode.isArray()) {
             if (!flags.contains(CompatibilityFlags.REMOVE_NONE_EXISTING_ARRAY_ELEMENT) &&
                     token.getIndex() >= parentNode.size())
                 throw new JsonPatchApplicationException(
                         "Array index " + token.getIndex() + " out of bounds", Operation.REPLACE, path.getParent());
-            ((ArrayNode) parentNode).remove(token.getIndex());
+            JsonNode previous = ((ArrayNode) parentNode).remove(token.getIndex());
+            if (previous != null)
+                resolved.elementRemoved(path.getParent(), token.getIndex());
+            if (undoLog != null && previous != null)
+                undoLog.elementRemoved((ArrayNode) parentNode, token.getIndex(), previous);
+            modifiedArray(path.getParent(), (ArrayNode) parentNode, token.getIndex() < parentNode.size());
+            return previous;
         } else {
             throw new JsonPatchApplicationException(
                     "Cannot reference past scalar value", Operation.REPLACE, path.getParent());
         }
     }
 
+    /**
+     * Resolves the node at the specified location, which is only read.
+     */
+    JsonNode resolve(JsonPointer path) throws JsonPointerEvaluationException {
+        return resolved.resolve(path, target);
+    }
 
+    /**
+     * Resolves the node about to be modified by an operation, i.e. the parent of the node added, replaced
+     * or removed.
+     */
+    JsonNode resolveForUpdate(JsonPointer path) throws JsonPointerEvaluationException {
+        return resolve(path);
+    }
 
-    private void set(JsonPointer path, JsonNode value, Operation forOp) throws JsonPointerEvaluationException {
-        if (path.isRoot())
+    /**
+     * Returns the value to insert for a copy operation, given the value copied.
+     */
+    JsonNode copyOf(JsonNode value) {
+        return value.deepCopy();
+    }
+
+    /**
+     * Adds the specified value at the specified location.
+     *
+     * @return The value displaced from that location, or {@code null} if none was.
+     */
+    private JsonNode set(JsonPointer path, JsonNode value, Operation forOp) throws JsonPointerEvaluationException {
+        modifying();
+        if (path.isRoot()) {
+            JsonNode previous = target;
             target = value;
-        else {
-            JsonNode parentNode = path.getParent().evaluate(target);
+            resolved.clear();
+            return previous;
+        } else {
+            JsonNode parentNode = resolveForUpdate(path.getParent());
             if (!parentNode.isContainerNode())
                 throw new JsonPatchApplicationException("Cannot reference past scalar value", forOp, path.getParent());
-            else if (parentNode.isArray())
+            else if (parentNode.isArray()) {
                 addToArray(path, value, parentNode);
-            else
-                addToObject(path, parentNode, value);
+                return null;
+            } else
+                return addToObject(path, parentNode, value);
         }
     }
 
-    private void addToObject(JsonPointer path, JsonNode node, JsonNode value) {
+    private JsonNode addToObject(JsonPointer path, JsonNode node, JsonNode value) {
         final ObjectNode target = (ObjectNode) node;
         String key = path.last().getField();
-        target.set(key, value);
+        JsonNode previous = target.replace(key, value);
+        resolved.childReplaced(path.getParent(), path.last());
+        if (undoLog != null)
+            undoLog.fieldSet(target, key, previous);
+        return previous;
     }
 
     private void addToArray(JsonPointer path, JsonNode value, JsonNode parentNode) {
@@ -154,11 +474,16 @@ class InPlaceApplyProcessor implements JsonPatchProcessor {
         if (idx == JsonPointer.LAST_INDEX) {
             // see http://tools.ietf.org/html/rfc6902#section-4.1
             target.add(value);
+            idx = target.size() - 1;
         } else {
             if (idx > target.size())
                 throw new JsonPatchApplicationException(
                         "Array index " + idx + " out of bounds", Operation.ADD, path.getParent());
             target.insert(idx, value);
         }
+        resolved.elementInserted(path.getParent(), idx);
+        if (undoLog != null)
+            undoLog.elementInserted(target, idx);
+        modifiedArray(path.getParent(), target, idx < target.size() - 1);
     }
 }
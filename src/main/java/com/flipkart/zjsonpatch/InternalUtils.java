@@ -1,58 +1,29 @@
 package com.flipkart.zjsonpatch;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Map;
 
 class InternalUtils {
 
-    static List<JsonNode> toList(ArrayNode input) {
-        int size = input.size();
-        List<JsonNode> toReturn = new ArrayList<JsonNode>(size);
-        for (int i = 0; i < size; i++) {
-            toReturn.add(input.get(i));
-        }
-        return toReturn;
-    }
-
-    static List<JsonNode> longestCommonSubsequence(final List<JsonNode> a, final List<JsonNode> b) {
-        if (a == null || b == null) {
-            throw new NullPointerException("List must not be null for longestCommonSubsequence");
-        }
-
-        List<JsonNode> toReturn = new LinkedList<JsonNode>();
-
-        int aSize = a.size();
-        int bSize = b.size();
-        int temp[][] = new int[aSize + 1][bSize + 1];
-
-        for (int i = 1; i <= aSize; i++) {
-            for (int j = 1; j <= bSize; j++) {
-                if (i == 0 || j == 0) {
-                    temp[i][j] = 0;
-                } else if (a.get(i - 1).equals(b.get(j - 1))) {
-                    temp[i][j] = temp[i - 1][j - 1] + 1;
-                } else {
-                    temp[i][j] = Math.max(temp[i][j - 1], temp[i - 1][j]);
-                }
+    /**
+     * Maps each element of the specified array between {@code fromIndex} (inclusive) and {@code toIndex}
+     * (exclusive) to an integer symbol, such that two elements (of this or any other array mapped with
+     * the same symbol table) share a symbol if and only if they are equal. This lets sequence algorithms
+     * compare elements in constant time, while {@code hashes} keeps the cost of building the table down.
+     */
+    static int[] toSymbols(JsonNode array, int fromIndex, int toIndex, NodeHashCache hashes,
+                           Map<NodeHashCache.Key, Integer> symbols) {
+        int[] result = new int[toIndex - fromIndex];
+        for (int i = 0; i < result.length; i++) {
+            NodeHashCache.Key element = hashes.key(array.get(fromIndex + i));
+            Integer symbol = symbols.get(element);
+            if (symbol == null) {
+                symbol = symbols.size();
+                symbols.put(element, symbol);
             }
+            result[i] = symbol;
         }
-        int i = aSize, j = bSize;
-        while (i > 0 && j > 0) {
-            if (a.get(i - 1).equals(b.get(j - 1))) {
-                toReturn.add(a.get(i - 1));
-                i--;
-                j--;
-            } else if (temp[i - 1][j] > temp[i][j - 1])
-                i--;
-            else
-                j--;
-        }
-        Collections.reverse(toReturn);
-        return toReturn;
+        return result;
     }
 }
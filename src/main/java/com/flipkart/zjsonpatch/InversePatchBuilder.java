@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the operations undoing a patch while it's being applied.
+ *
+ * <p>Operations are recorded in the order they are to be undone, i.e. starting with the last one of the
+ * patch; since a single operation may take several to undo, those are recorded last one first as well.
+ * {@link #build()} then reverses the whole.
+ */
+final class InversePatchBuilder {
+    private static final JsonNodeFactory FACTORY = JsonNodeFactory.instance;
+
+    private final List<ObjectNode> operations = new ArrayList<ObjectNode>();
+
+    void add(JsonPointer path, JsonNode value) {
+        record(Operation.ADD, path).set(Constants.VALUE, value);
+    }
+
+    void remove(JsonPointer path) {
+        record(Operation.REMOVE, path);
+    }
+
+    void replace(JsonPointer path, JsonNode value) {
+        record(Operation.REPLACE, path).set(Constants.VALUE, value);
+    }
+
+    void move(JsonPointer fromPath, JsonPointer toPath) {
+        record(Operation.MOVE, toPath).put(Constants.FROM, fromPath.toString());
+    }
+
+    private ObjectNode record(Operation operation, JsonPointer path) {
+        ObjectNode node = FACTORY.objectNode();
+        node.put(Constants.OP, operation.rfcName());
+        node.put(Constants.PATH, path.toString());
+        operations.add(node);
+        return node;
+    }
+
+    /**
+     * Returns the inverse patch, which restores the document as it was before the recorded operations.
+     */
+    ArrayNode build() {
+        ArrayNode patch = FACTORY.arrayNode(operations.size());
+        for (int i = operations.size() - 1; i >= 0; i--)
+            patch.add(operations.get(i));
+        return patch;
+    }
+}
@@ -16,13 +16,19 @@
 
 package com.flipkart.zjsonpatch;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import org.apache.commons.collections4.ListUtils;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -35,11 +41,17 @@ import java.util.Map;
  */
 public final class JsonDiff {
 
+    // Only used to serialize values when writing a patch out directly
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     private final List<Diff> diffs = new ArrayList<Diff>();
     private final EnumSet<DiffFlags> flags;
+    private final DiffOptions options;
+    private final NodeHashCache hashes = new NodeHashCache();
 
-    private JsonDiff(EnumSet<DiffFlags> flags) {
+    private JsonDiff(EnumSet<DiffFlags> flags, DiffOptions options) {
         this.flags = flags.clone();
+        this.options = options.clone();
     }
 
     public static JsonNode asJson(final JsonNode source, final JsonNode target) {
@@ -47,7 +59,97 @@ public final class JsonDiff {
     }
 
     public static JsonNode asJson(final JsonNode source, final JsonNode target, EnumSet<DiffFlags> flags) {
-        JsonDiff diff = new JsonDiff(flags);
+        return asJson(source, target, flags, DiffOptions.defaults());
+    }
+
+    public static JsonNode asJson(final JsonNode source, final JsonNode target, EnumSet<DiffFlags> flags, DiffOptions options) {
+        return compute(source, target, flags, options).getJsonNodes();
+    }
+
+    /**
+     * Computes the patch between the specified documents, like {@link #asJson}, as a list of typed
+     * operations instead of a JSON tree. This saves building (and parsing back) the RFC 6902 form for
+     * callers that process the operations themselves.
+     *
+     * <p>The operations are the same, in the same order, as those rendered by {@link #asJson}, with the
+     * exception that flags only affecting the rendering ({@link DiffFlags#OMIT_VALUE_ON_REMOVE} and
+     * {@link DiffFlags#ADD_ORIGINAL_VALUE_ON_REPLACE}) are ignored: values are always available.
+     *
+     * @return A mutable list, owned by the caller.
+     * @since 0.4.12
+     */
+    public static List<Diff> asDiffs(final JsonNode source, final JsonNode target, EnumSet<DiffFlags> flags, DiffOptions options) {
+        return compute(source, target, flags, options).diffs;
+    }
+
+    public static List<Diff> asDiffs(final JsonNode source, final JsonNode target, EnumSet<DiffFlags> flags) {
+        return asDiffs(source, target, flags, DiffOptions.defaults());
+    }
+
+    public static List<Diff> asDiffs(final JsonNode source, final JsonNode target) {
+        return asDiffs(source, target, DiffFlags.defaults());
+    }
+
+    /**
+     * Computes the patch between the specified documents, like {@link #asJson}, and writes it to the specified
+     * generator rather than building it as a tree.
+     *
+     * <p>Each operation is written as soon as the complete list of diffs is known, and then released, so
+     * neither an {@link ArrayNode} holding the whole patch nor one node per operation is ever allocated.
+     * The generator is flushed, but not closed.
+     *
+     * @since 0.4.12
+     */
+    public static void writeAsJson(final JsonNode source, final JsonNode target, EnumSet<DiffFlags> flags,
+                                   DiffOptions options, JsonGenerator generator) throws IOException {
+        compute(source, target, flags, options).writeJson(generator);
+        generator.flush();
+    }
+
+    public static void writeAsJson(final JsonNode source, final JsonNode target, JsonGenerator generator) throws IOException {
+        writeAsJson(source, target, DiffFlags.defaults(), DiffOptions.defaults(), generator);
+    }
+
+    /**
+     * Writes the patch between the specified documents to the specified stream, as UTF-8 encoded JSON. The
+     * stream is flushed, but not closed.
+     *
+     * @see #writeAsJson(JsonNode, JsonNode, EnumSet, DiffOptions, JsonGenerator)
+     * @since 0.4.12
+     */
+    public static void writeAsJson(final JsonNode source, final JsonNode target, EnumSet<DiffFlags> flags,
+                                   DiffOptions options, OutputStream out) throws IOException {
+        JsonGenerator generator = MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        writeAsJson(source, target, flags, options, generator);
+        generator.close();
+    }
+
+    public static void writeAsJson(final JsonNode source, final JsonNode target, OutputStream out) throws IOException {
+        writeAsJson(source, target, DiffFlags.defaults(), DiffOptions.defaults(), out);
+    }
+
+    /**
+     * Writes the patch between the specified documents to the specified writer. The writer is flushed, but
+     * not closed.
+     *
+     * @see #writeAsJson(JsonNode, JsonNode, EnumSet, DiffOptions, JsonGenerator)
+     * @since 0.4.12
+     */
+    public static void writeAsJson(final JsonNode source, final JsonNode target, EnumSet<DiffFlags> flags,
+                                   DiffOptions options, Writer writer) throws IOException {
+        JsonGenerator generator = MAPPER.getFactory().createGenerator(writer);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        writeAsJson(source, target, flags, options, generator);
+        generator.close();
+    }
+
+    public static void writeAsJson(final JsonNode source, final JsonNode target, Writer writer) throws IOException {
+        writeAsJson(source, target, DiffFlags.defaults(), DiffOptions.defaults(), writer);
+    }
+
+    private static JsonDiff compute(final JsonNode source, final JsonNode target, EnumSet<DiffFlags> flags, DiffOptions options) {
+        JsonDiff diff = new JsonDiff(flags, options);
         if (source == null && target != null) {
             // return add node at root pointing to the target
             diff.diffs.add(Diff.generateDiff(Operation.ADD, JsonPointer.ROOT, target));
@@ -71,15 +173,15 @@ public final class JsonDiff {
                 // Split replace into remove and add instructions
                 diff.introduceExplicitRemoveAndAddOperation();
         }
-        return diff.getJsonNodes();
+        return diff;
     }
 
-    private static JsonPointer getMatchingValuePath(Map<JsonNode, JsonPointer> unchangedValues, JsonNode value) {
-        return unchangedValues.get(value);
+    private JsonPointer getMatchingValuePath(Map<NodeHashCache.Key, JsonPointer> unchangedValues, JsonNode value) {
+        return unchangedValues.get(hashes.key(value));
     }
 
     private void introduceCopyOperation(JsonNode source, JsonNode target) {
-        Map<JsonNode, JsonPointer> unchangedValues = getUnchangedPart(source, target);
+        Map<NodeHashCache.Key, JsonPointer> unchangedValues = getUnchangedPart(source, target);
 
         for (int i = 0; i < diffs.size(); i++) {
             Diff diff = diffs.get(i);
@@ -134,16 +236,17 @@ public final class JsonDiff {
         return !isSame;
     }
 
-    private static Map<JsonNode, JsonPointer> getUnchangedPart(JsonNode source, JsonNode target) {
-        Map<JsonNode, JsonPointer> unchangedValues = new HashMap<JsonNode, JsonPointer>();
+    private Map<NodeHashCache.Key, JsonPointer> getUnchangedPart(JsonNode source, JsonNode target) {
+        Map<NodeHashCache.Key, JsonPointer> unchangedValues = new HashMap<NodeHashCache.Key, JsonPointer>();
         computeUnchangedValues(unchangedValues, JsonPointer.ROOT, source, target);
         return unchangedValues;
     }
 
-    private static void computeUnchangedValues(Map<JsonNode, JsonPointer> unchangedValues, JsonPointer path, JsonNode source, JsonNode target) {
-        if (source.equals(target)) {
-            if (!unchangedValues.containsKey(target)) {
-                unchangedValues.put(target, path);
+    private void computeUnchangedValues(Map<NodeHashCache.Key, JsonPointer> unchangedValues, JsonPointer path, JsonNode source, JsonNode target) {
+        if (hashes.equal(source, target)) {
+            NodeHashCache.Key key = hashes.key(target);
+            if (!unchangedValues.containsKey(key)) {
+                unchangedValues.put(key, path);
             }
             return;
         }
@@ -165,7 +268,11 @@ public final class JsonDiff {
         }
     }
 
-    private static void computeArray(Map<JsonNode, JsonPointer> unchangedValues, JsonPointer path, JsonNode source, JsonNode target) {
+    private void computeArray(Map<NodeHashCache.Key, JsonPointer> unchangedValues, JsonPointer path, JsonNode source, JsonNode target) {
+        // Elements of keyed and unordered arrays may be shifted around by the diff even where both sides agree
+        if (options.getArrayKey(path) != null || options.isUnorderedArray(path))
+            return;
+
         final int size = Math.min(source.size(), target.size());
 
         for (int i = 0; i < size; i++) {
@@ -174,7 +281,7 @@ public final class JsonDiff {
         }
     }
 
-    private static void computeObject(Map<JsonNode, JsonPointer> unchangedValues, JsonPointer path, JsonNode source, JsonNode target) {
+    private void computeObject(Map<NodeHashCache.Key, JsonPointer> unchangedValues, JsonPointer path, JsonNode source, JsonNode target) {
         final Iterator<String> firstFields = source.fieldNames();
         while (firstFields.hasNext()) {
             String name = firstFields.next();
@@ -190,39 +297,67 @@ public final class JsonDiff {
      * all the core logic resides here only
      */
     private void introduceMoveOperation() {
+        // Pending ADD and REMOVE diffs, bucketed by value, so that each diff only looks at candidates with
+        // an equal value rather than scanning all subsequent diffs
+        Map<NodeHashCache.Key, IndexQueue> adds = new HashMap<NodeHashCache.Key, IndexQueue>();
+        Map<NodeHashCache.Key, IndexQueue> removes = new HashMap<NodeHashCache.Key, IndexQueue>();
+        for (int i = 0; i < diffs.size(); i++) {
+            Diff diff = diffs.get(i);
+            if (Operation.ADD == diff.getOperation())
+                IndexQueue.of(adds, hashes.key(diff.getValue())).add(i);
+            else if (Operation.REMOVE == diff.getOperation())
+                IndexQueue.of(removes, hashes.key(diff.getValue())).add(i);
+        }
+
+        // Diffs that were merged into a preceding move; indices refer to the original list until it's compacted
+        boolean[] merged = new boolean[diffs.size()];
+        IndexShifts shifts = new IndexShifts(diffs);
         for (int i = 0; i < diffs.size(); i++) {
             Diff diff1 = diffs.get(i);
 
-            // if not remove OR add, move to next diff
-            if (!(Operation.REMOVE == diff1.getOperation() ||
+            // if not remove OR add, or already merged, move to next diff
+            if (merged[i] || !(Operation.REMOVE == diff1.getOperation() ||
                     Operation.ADD == diff1.getOperation())) {
                 continue;
             }
 
-            for (int j = i + 1; j < diffs.size(); j++) {
-                Diff diff2 = diffs.get(j);
-                if (!diff1.getValue().equals(diff2.getValue())) {
-                    continue;
-                }
+            // the first subsequent diff with the same value and the complementary operation
+            Map<NodeHashCache.Key, IndexQueue> complements = Operation.REMOVE == diff1.getOperation() ? adds : removes;
+            IndexQueue candidates = complements.get(hashes.key(diff1.getValue()));
+            int j = candidates != null ? candidates.peekAfter(i, merged) : -1;
+            if (j < 0) {
+                continue;
+            }
 
-                Diff moveDiff = null;
-                if (Operation.REMOVE == diff1.getOperation() &&
-                        Operation.ADD == diff2.getOperation()) {
-                    JsonPointer relativePath = computeRelativePath(diff2.getPath(), i + 1, j - 1, diffs);
-                    moveDiff = new Diff(Operation.MOVE, diff1.getPath(), relativePath);
+            Diff diff2 = diffs.get(j);
+            Diff moveDiff;
+            if (Operation.REMOVE == diff1.getOperation()) {
+                JsonPointer relativePath = computeRelativePath(diff2.getPath(), i + 1, j - 1, shifts);
+                if (relativePath == null) continue;
+                moveDiff = new Diff(Operation.MOVE, diff1.getPath(), relativePath);
+            } else {
+                JsonPointer relativePath = computeRelativePath(diff2.getPath(), i, j - 1, shifts); // diff1's add should also be considered
+                if (relativePath == null) continue;
+                moveDiff = new Diff(Operation.MOVE, relativePath, diff1.getPath());
+                // The value is moved away before any test guarding its removal would run, so drop that test
+                Diff guard = diffs.get(j - 1);
+                if (Operation.TEST == guard.getOperation() && guard.getPath().equals(diff2.getPath()))
+                    merged[j - 1] = true;
+            }
+            candidates.poll();
+            merged[j] = true;
+            shifts.remove(j);
+            shifts.remove(i);
+            diffs.set(i, moveDiff);
+        }
 
-                } else if (Operation.ADD == diff1.getOperation() &&
-                        Operation.REMOVE == diff2.getOperation()) {
-                    JsonPointer relativePath = computeRelativePath(diff2.getPath(), i, j - 1, diffs); // diff1's add should also be considered
-                    moveDiff = new Diff(Operation.MOVE, relativePath, diff1.getPath());
-                }
-                if (moveDiff != null) {
-                    diffs.remove(j);
-                    diffs.set(i, moveDiff);
-                    break;
-                }
+        int size = 0;
+        for (int i = 0; i < diffs.size(); i++) {
+            if (!merged[i]) {
+                diffs.set(size++, diffs.get(i));
             }
         }
+        diffs.subList(size, diffs.size()).clear();
     }
 
     /**
@@ -247,62 +382,40 @@ public final class JsonDiff {
 
     //Note : only to be used for arrays
     //Finds the longest common Ancestor ending at Array
-    private static JsonPointer computeRelativePath(JsonPointer path, int startIdx, int endIdx, List<Diff> diffs) {
-        List<Integer> counters = new ArrayList<Integer>(path.size());
-        for (int i = 0; i < path.size(); i++) {
-            counters.add(0);
-        }
-
-        for (int i = startIdx; i <= endIdx; i++) {
-            Diff diff = diffs.get(i);
-            //Adjust relative path according to #ADD and #Remove
-            if (Operation.ADD == diff.getOperation() || Operation.REMOVE == diff.getOperation()) {
-                updatePath(path, diff, counters);
-            }
+    //Returns null if the path can't be adjusted, i.e. an enclosing array is reordered in between
+    private static JsonPointer computeRelativePath(JsonPointer path, int startIdx, int endIdx, IndexShifts shifts) {
+        //Adjust relative path according to the #ADD and #REMOVE operations on each enclosing array
+        int[] counters = new int[path.size()];
+        JsonPointer parent = path;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            parent = parent.getParent();
+            if (shifts.isReordered(parent, startIdx, endIdx))
+                return null;
+            counters[i] = shifts.sum(parent, startIdx, endIdx);
         }
         return updatePathWithCounters(counters, path);
     }
 
-    private static JsonPointer updatePathWithCounters(List<Integer> counters, JsonPointer path) {
+    private static JsonPointer updatePathWithCounters(int[] counters, JsonPointer path) {
+        // Tokens before the first adjusted one are kept as a shared prefix
+        int first = 0;
+        while (first < counters.length && counters[first] == 0)
+            first++;
+        if (first == counters.length)
+            return path;
+
         List<JsonPointer.RefToken> tokens = path.decompose();
-        for (int i = 0; i < counters.size(); i++) {
-            int value = counters.get(i);
+        JsonPointer result = path.prefix(first);
+        for (int i = first; i < counters.length; i++) {
+            JsonPointer.RefToken token = tokens.get(i);
+            int value = counters[i];
             if (value != 0) {
-                int currValue = tokens.get(i).getIndex();
-                tokens.set(i, new JsonPointer.RefToken(Integer.toString(currValue + value)));
-            }
-        }
-        return new JsonPointer(tokens);
-    }
-
-    private static void updatePath(JsonPointer path, Diff pseudo, List<Integer> counters) {
-        //find longest common prefix of both the paths
-
-        if (pseudo.getPath().size() <= path.size()) {
-            int idx = -1;
-            for (int i = 0; i < pseudo.getPath().size() - 1; i++) {
-                if (pseudo.getPath().get(i).equals(path.get(i))) {
-                    idx = i;
-                } else {
-                    break;
-                }
-            }
-            if (idx == pseudo.getPath().size() - 2) {
-                if (pseudo.getPath().get(pseudo.getPath().size() - 1).isArrayIndex()) {
-                    updateCounters(pseudo, pseudo.getPath().size() - 1, counters);
-                }
-            }
-        }
-    }
-
-    private static void updateCounters(Diff pseudo, int idx, List<Integer> counters) {
-        if (Operation.ADD == pseudo.getOperation()) {
-            counters.set(idx, counters.get(idx) - 1);
-        } else {
-            if (Operation.REMOVE == pseudo.getOperation()) {
-                counters.set(idx, counters.get(idx) + 1);
+                int currValue = token.getIndex();
+                token = new JsonPointer.RefToken(Integer.toString(currValue + value));
             }
+            result = result.append(token);
         }
+        return result;
     }
 
     private ArrayNode getJsonNodes() {
@@ -315,6 +428,59 @@ public final class JsonDiff {
         return patch;
     }
 
+    private void writeJson(JsonGenerator generator) throws IOException {
+        generator.writeStartArray();
+        for (int i = 0; i < diffs.size(); i++) {
+            writeJson(generator, diffs.get(i), flags);
+            diffs.set(i, null);
+        }
+        generator.writeEndArray();
+    }
+
+    // Mirrors getJsonNode, field for field
+    private static void writeJson(JsonGenerator generator, Diff diff, EnumSet<DiffFlags> flags) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField(Constants.OP, diff.getOperation().rfcName());
+
+        switch (diff.getOperation()) {
+            case MOVE:
+            case COPY:
+                generator.writeStringField(Constants.FROM, diff.getPath().toString());
+                generator.writeStringField(Constants.PATH, diff.getToPath().toString());
+                break;
+
+            case REMOVE:
+                generator.writeStringField(Constants.PATH, diff.getPath().toString());
+                if (!flags.contains(DiffFlags.OMIT_VALUE_ON_REMOVE))
+                    writeValueField(generator, Constants.VALUE, diff.getValue());
+                break;
+
+            case REPLACE:
+                if (flags.contains(DiffFlags.ADD_ORIGINAL_VALUE_ON_REPLACE)) {
+                    writeValueField(generator, Constants.FROM_VALUE, diff.getSrcValue());
+                }
+            case ADD:
+            case TEST:
+                generator.writeStringField(Constants.PATH, diff.getPath().toString());
+                writeValueField(generator, Constants.VALUE, diff.getValue());
+                break;
+
+            default:
+                // Safety net
+                throw new IllegalArgumentException("Unknown operation specified:" + diff.getOperation());
+        }
+
+        generator.writeEndObject();
+    }
+
+    private static void writeValueField(JsonGenerator generator, String name, JsonNode value) throws IOException {
+        generator.writeFieldName(name);
+        if (value == null)
+            generator.writeNull();  // as ObjectNode.set would have it
+        else
+            MAPPER.writeTree(generator, value);
+    }
+
     private static ObjectNode getJsonNode(JsonNodeFactory FACTORY, Diff diff, EnumSet<DiffFlags> flags) {
         ObjectNode jsonNode = FACTORY.objectNode();
         jsonNode.put(Constants.OP, diff.getOperation().rfcName());
@@ -351,13 +517,19 @@ public final class JsonDiff {
     }
 
     private void generateDiffs(JsonPointer path, JsonNode source, JsonNode target) {
-        if (!source.equals(target)) {
+        if (!hashes.equal(source, target)) {
             final NodeType sourceType = NodeType.getNodeType(source);
             final NodeType targetType = NodeType.getNodeType(target);
 
             if (sourceType == NodeType.ARRAY && targetType == NodeType.ARRAY) {
                 //both are arrays
-                compareArray(path, source, target);
+                String keyField = options.getArrayKey(path);
+                if (keyField != null && compareKeyedArray(path, source, target, keyField))
+                    return;
+                if (options.isUnorderedArray(path))
+                    compareUnorderedArray(path, source, target);
+                else
+                    compareArray(path, source, target);
             } else if (sourceType == NodeType.OBJECT && targetType == NodeType.OBJECT) {
                 //both are json
                 compareObjects(path, source, target);
@@ -371,34 +543,47 @@ public final class JsonDiff {
     }
 
     private void compareArray(JsonPointer path, JsonNode source, JsonNode target) {
-        List<JsonNode> lcs = getLCS(source, target);
-        int srcIdx = 0;
-        int targetIdx = 0;
+        // Equal leading and trailing elements produce no diffs, so only the window between them is aligned
+        int prefix = commonPrefixLength(source, target);
+        int suffix = commonSuffixLength(source, target, prefix);
+        int srcSize = source.size() - suffix;
+        int targetSize = target.size() - suffix;
+
+        Map<NodeHashCache.Key, Integer> symbols = new HashMap<NodeHashCache.Key, Integer>();
+        int[] srcSymbols = InternalUtils.toSymbols(source, prefix, srcSize, hashes, symbols);
+        int[] targetSymbols = InternalUtils.toSymbols(target, prefix, targetSize, hashes, symbols);
+        if (!flags.contains(DiffFlags.OMIT_MOVE_OPERATION) && isPermutation(srcSymbols, targetSymbols, symbols.size())) {
+            compareReorderedArray(path, source, prefix, srcSymbols, targetSymbols);
+            return;
+        }
+        int[] lcs = getLCS(srcSymbols, targetSymbols);
+        int srcIdx = prefix;
+        int targetIdx = prefix;
         int lcsIdx = 0;
-        int srcSize = source.size();
-        int targetSize = target.size();
-        int lcsSize = lcs.size();
+        int lcsSize = lcs.length;
 
-        int pos = 0;
+        int pos = prefix;
         while (lcsIdx < lcsSize) {
-            JsonNode lcsNode = lcs.get(lcsIdx);
+            int lcsSymbol = lcs[lcsIdx];
+            int srcSymbol = srcSymbols[srcIdx - prefix];
+            int targetSymbol = targetSymbols[targetIdx - prefix];
             JsonNode srcNode = source.get(srcIdx);
             JsonNode targetNode = target.get(targetIdx);
 
 
-            if (lcsNode.equals(srcNode) && lcsNode.equals(targetNode)) { // Both are same as lcs node, nothing to do here
+            if (lcsSymbol == srcSymbol && lcsSymbol == targetSymbol) { // Both are same as lcs node, nothing to do here
                 srcIdx++;
                 targetIdx++;
                 lcsIdx++;
                 pos++;
             } else {
-                if (lcsNode.equals(srcNode)) { // src node is same as lcs, but not targetNode
+                if (lcsSymbol == srcSymbol) { // src node is same as lcs, but not targetNode
                     //addition
                     JsonPointer currPath = path.append(pos);
                     diffs.add(Diff.generateDiff(Operation.ADD, currPath, targetNode));
                     pos++;
                     targetIdx++;
-                } else if (lcsNode.equals(targetNode)) { //targetNode node is same as lcs, but not src
+                } else if (lcsSymbol == targetSymbol) { //targetNode node is same as lcs, but not src
                     //removal,
                     JsonPointer currPath = path.append(pos);
                     if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS))
@@ -429,6 +614,247 @@ public final class JsonDiff {
         removeRemaining(path, pos, srcIdx, srcSize, source);
     }
 
+    /**
+     * Determines whether the specified sequences consist of the same distinct symbols. (With duplicates, the
+     * number of moves would depend on which copies are paired up, which the LCS takes care of instead.)
+     */
+    private static boolean isPermutation(int[] first, int[] second, int symbolCount) {
+        if (first.length != second.length || symbolCount != first.length)
+            return false;
+        boolean[] unmatched = new boolean[symbolCount];
+        for (int symbol : first)
+            unmatched[symbol] = true;
+        for (int symbol : second) {
+            if (!unmatched[symbol])
+                return false;
+            unmatched[symbol] = false;
+        }
+        return true;
+    }
+
+    /**
+     * Diffs two sequences of the same elements in a different order with as few moves as possible.
+     *
+     * <p>Each source element is mapped to its target position, and the elements forming a longest increasing
+     * subsequence of those positions stay where they are. Every other element is moved once, in target
+     * order, to just after its target predecessor.
+     *
+     * <p>To tell the current index of an element without replaying the moves, the array is laid out as a
+     * fixed sequence of slots: one for each element where it starts, and one for each moved element where
+     * it ends up. A moved element's final slot directly follows that of its target predecessor, so the
+     * final slots for the elements that go between two stationary elements come right after the first of
+     * them, ahead of any starting slots in between. A Fenwick tree over the occupied slots then yields
+     * indices in logarithmic time.
+     */
+    private void compareReorderedArray(JsonPointer path, JsonNode source, int offset, int[] srcSymbols, int[] targetSymbols) {
+        int size = srcSymbols.length;
+        int[] targetPositions = new int[size];
+        int[] sourceAt = new int[size];
+        int[] targetOfSymbol = new int[size];  // symbols are 0..size-1, each occurring once
+        for (int t = 0; t < size; t++)
+            targetOfSymbol[targetSymbols[t]] = t;
+        for (int i = 0; i < size; i++) {
+            targetPositions[i] = targetOfSymbol[srcSymbols[i]];
+            sourceAt[targetPositions[i]] = i;
+        }
+        boolean[] stationary = LongestIncreasingSubsequence.mark(targetPositions);
+
+        int[] startSlots = new int[size];
+        int[] finalSlots = new int[size];
+        int slot = 0;
+        int t = 0;
+        int i = 0;
+        while (i < size) {
+            // Final slots of the elements that go before the next stationary one, then the starting slots
+            // of the elements that are in front of it now
+            int anchor = i;
+            while (anchor < size && !stationary[anchor])
+                anchor++;
+            int anchorTarget = anchor < size ? targetPositions[anchor] : size;
+            for (; t < anchorTarget; t++)
+                finalSlots[t] = slot++;
+            for (; i < anchor; i++)
+                startSlots[i] = slot++;
+            if (anchor < size) {
+                startSlots[anchor] = slot++;
+                i++;
+                t++;
+            }
+        }
+        for (; t < size; t++)
+            finalSlots[t] = slot++;
+
+        FenwickTree occupied = new FenwickTree(slot);
+        for (i = 0; i < size; i++)
+            occupied.add(startSlots[i], 1);
+        for (t = 0; t < size; t++) {
+            int src = sourceAt[t];
+            if (stationary[src])
+                continue;
+            int from = occupied.prefixSum(startSlots[src]);
+            occupied.add(startSlots[src], -1);
+            int to = occupied.prefixSum(finalSlots[t]);
+            occupied.add(finalSlots[t], 1);
+
+            JsonPointer fromPath = path.append(offset + from);
+            if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS))
+                diffs.add(new Diff(Operation.TEST, fromPath, source.get(offset + src)));
+            diffs.add(new Diff(Operation.MOVE, fromPath, path.append(offset + to)));
+        }
+    }
+
+    /**
+     * Diffs two arrays of entities by matching elements on the value of their key field.
+     *
+     * @return {@code false} if the arrays can't be matched by key (in which case no diffs were generated).
+     */
+    private boolean compareKeyedArray(JsonPointer path, JsonNode source, JsonNode target, String keyField) {
+        Map<NodeHashCache.Key, Integer> sourceIndices = indexByKey(source, keyField);
+        Map<NodeHashCache.Key, Integer> targetIndices = indexByKey(target, keyField);
+        if (sourceIndices == null || targetIndices == null)
+            return false;
+
+        // Remove the entities whose keys are gone; the rest keep their relative order for now, and are
+        // ranked by that order
+        Map<NodeHashCache.Key, Integer> ranks = new HashMap<NodeHashCache.Key, Integer>();
+        List<JsonNode> remaining = new ArrayList<JsonNode>();
+        int removed = 0;
+        for (int i = 0; i < source.size(); i++) {
+            JsonNode srcNode = source.get(i);
+            NodeHashCache.Key key = hashes.key(srcNode.get(keyField));
+            if (targetIndices.containsKey(key)) {
+                ranks.put(key, remaining.size());
+                remaining.add(srcNode);
+            } else {
+                JsonPointer currPath = path.append(i - removed);
+                if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS))
+                    diffs.add(new Diff(Operation.TEST, currPath, srcNode));
+                diffs.add(Diff.generateDiff(Operation.REMOVE, currPath, srcNode));
+                removed++;
+            }
+        }
+
+        // Build the target order front to back. The elements from pos onwards are always the remaining
+        // entities not placed yet, in rank order, so an entity's current index is pos plus the number of
+        // unplaced entities ranked before it
+        int[] unplaced = new int[remaining.size()];
+        Arrays.fill(unplaced, 1);
+        FenwickTree pending = new FenwickTree(unplaced);
+        for (int pos = 0; pos < target.size(); pos++) {
+            JsonNode targetNode = target.get(pos);
+            JsonPointer currPath = path.append(pos);
+            Integer rank = ranks.get(hashes.key(targetNode.get(keyField)));
+            if (rank == null) {
+                diffs.add(Diff.generateDiff(Operation.ADD, currPath, targetNode));
+                continue;
+            }
+
+            JsonNode srcNode = remaining.get(rank);
+            int currentPos = pos + pending.prefixSum(rank);
+            pending.add(rank, -1);
+            if (currentPos != pos) {
+                JsonPointer fromPath = path.append(currentPos);
+                if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS))
+                    diffs.add(new Diff(Operation.TEST, fromPath, srcNode));
+                if (flags.contains(DiffFlags.OMIT_MOVE_OPERATION)) {
+                    diffs.add(Diff.generateDiff(Operation.REMOVE, fromPath, srcNode));
+                    diffs.add(Diff.generateDiff(Operation.ADD, currPath, targetNode));
+                    continue;
+                }
+                diffs.add(new Diff(Operation.MOVE, fromPath, currPath));
+            }
+            generateDiffs(currPath, srcNode, targetNode);
+        }
+        return true;
+    }
+
+    /**
+     * Diffs two arrays as multisets: surplus source elements are removed and surplus target elements are
+     * appended, while elements present in both keep their (source) order.
+     */
+    private void compareUnorderedArray(JsonPointer path, JsonNode source, JsonNode target) {
+        Map<NodeHashCache.Key, Integer> counts = new HashMap<NodeHashCache.Key, Integer>();
+        for (int i = 0; i < target.size(); i++)
+            adjustCount(counts, hashes.key(target.get(i)), 1);
+
+        int pos = 0;
+        for (int i = 0; i < source.size(); i++) {
+            JsonNode srcNode = source.get(i);
+            if (adjustCount(counts, hashes.key(srcNode), -1)) {
+                pos++;
+                continue;
+            }
+            JsonPointer currPath = path.append(pos);
+            if (flags.contains(DiffFlags.EMIT_TEST_OPERATIONS))
+                diffs.add(new Diff(Operation.TEST, currPath, srcNode));
+            diffs.add(Diff.generateDiff(Operation.REMOVE, currPath, srcNode));
+        }
+
+        // Whatever is left in counts is missing from the source
+        for (int i = 0; i < target.size(); i++) {
+            JsonNode targetNode = target.get(i);
+            if (adjustCount(counts, hashes.key(targetNode), -1))
+                diffs.add(Diff.generateDiff(Operation.ADD, path.append(pos++), targetNode));
+        }
+    }
+
+    /**
+     * Adds {@code delta} to the count of the specified key, unless that would make it negative.
+     *
+     * @return {@code false} if the count was left alone.
+     */
+    private static boolean adjustCount(Map<NodeHashCache.Key, Integer> counts, NodeHashCache.Key key, int delta) {
+        Integer count = counts.get(key);
+        int updated = (count == null ? 0 : count) + delta;
+        if (updated < 0)
+            return false;
+        if (updated == 0)
+            counts.remove(key);
+        else
+            counts.put(key, updated);
+        return true;
+    }
+
+    /**
+     * Maps the key of each element of the specified array to its index, or returns {@code null} if
+     * some element has no key or shares its key with another.
+     */
+    private Map<NodeHashCache.Key, Integer> indexByKey(JsonNode array, String keyField) {
+        Map<NodeHashCache.Key, Integer> indices = new HashMap<NodeHashCache.Key, Integer>();
+        for (int i = 0; i < array.size(); i++) {
+            JsonNode keyNode = array.get(i).get(keyField);
+            if (!array.get(i).isObject() || keyNode == null || indices.put(hashes.key(keyNode), i) != null)
+                return null;
+        }
+        return indices;
+    }
+
+    private int commonPrefixLength(JsonNode source, JsonNode target) {
+        int limit = Math.min(source.size(), target.size());
+        int length = 0;
+        while (length < limit && hashes.equal(source.get(length), target.get(length)))
+            length++;
+        return length;
+    }
+
+    private int commonSuffixLength(JsonNode source, JsonNode target, int prefixLength) {
+        int limit = Math.min(source.size(), target.size()) - prefixLength;
+        int srcLast = source.size() - 1;
+        int targetLast = target.size() - 1;
+        int length = 0;
+        while (length < limit && hashes.equal(source.get(srcLast - length), target.get(targetLast - length)))
+            length++;
+        return length;
+    }
+
+    private int[] getLCS(int[] first, int[] second) {
+        // The trace kept by the faster variant is quadratic in the number of edits, which for large,
+        // heavily modified arrays can exceed the heap; bound it by the size of the edit graph
+        if ((long) first.length * second.length > options.getLinearSpaceThreshold())
+            return MyersLcs.computeInLinearSpace(first, second);
+        return MyersLcs.compute(first, second);
+    }
+
     private void removeRemaining(JsonPointer path, int pos, int srcIdx, int srcSize, JsonNode source) {
         while (srcIdx < srcSize) {
             JsonPointer currPath = path.append(pos);
@@ -476,7 +902,149 @@ public final class JsonDiff {
         }
     }
 
-    private static List<JsonNode> getLCS(final JsonNode first, final JsonNode second) {
-        return ListUtils.longestCommonSubsequence(InternalUtils.toList((ArrayNode) first), InternalUtils.toList((ArrayNode) second));
+    /**
+     * Diff indices in increasing order, consumed from the front.
+     */
+    private static final class IndexQueue {
+        private int[] indices = new int[2];
+        private int head = 0;
+        private int tail = 0;
+
+        static IndexQueue of(Map<NodeHashCache.Key, IndexQueue> queues, NodeHashCache.Key key) {
+            IndexQueue queue = queues.get(key);
+            if (queue == null) {
+                queue = new IndexQueue();
+                queues.put(key, queue);
+            }
+            return queue;
+        }
+
+        void add(int index) {
+            if (tail == indices.length)
+                indices = Arrays.copyOf(indices, tail * 2);
+            indices[tail++] = index;
+        }
+
+        /**
+         * Returns the first index greater than {@code after} which isn't marked as skipped, or -1.
+         * Indices passed over are discarded, so {@code after} must not decrease between calls.
+         */
+        int peekAfter(int after, boolean[] skipped) {
+            while (head < tail && (indices[head] <= after || skipped[indices[head]]))
+                head++;
+            return head < tail ? indices[head] : -1;
+        }
+
+        void poll() {
+            head++;
+        }
+    }
+
+    /**
+     * Tracks how the #ADD and #REMOVE operations on array elements within a list of diffs shift the
+     * indices of those arrays, so that the net shift over any range of diffs can be found in O(log n).
+     * Each array is identified by its pointer and gets its own Fenwick tree over the positions (in the
+     * list) of the diffs that affect it.
+     *
+     * <p>Element moves (as generated for keyed arrays) shift indices depending on where the element goes,
+     * which a count can't express; those are tracked separately, so that paths into arrays being reordered
+     * can be left alone.
+     */
+    private static final class IndexShifts {
+        private final Map<JsonPointer, ArrayShifts> arrays = new HashMap<JsonPointer, ArrayShifts>();
+        private final Map<JsonPointer, ArrayShifts> reorderings = new HashMap<JsonPointer, ArrayShifts>();
+        private final JsonPointer[] parents;
+
+        IndexShifts(List<Diff> diffs) {
+            parents = new JsonPointer[diffs.size()];
+            Map<JsonPointer, List<Integer>> positions = new HashMap<JsonPointer, List<Integer>>();
+            Map<JsonPointer, List<Integer>> movePositions = new HashMap<JsonPointer, List<Integer>>();
+            for (int i = 0; i < diffs.size(); i++) {
+                Diff diff = diffs.get(i);
+                JsonPointer path = diff.getPath();
+                if ((Operation.ADD == diff.getOperation() || Operation.REMOVE == diff.getOperation()) &&
+                        !path.isRoot() && path.last().isArrayIndex()) {
+                    parents[i] = path.getParent();
+                    addPosition(positions, parents[i], i);
+                } else if (Operation.MOVE == diff.getOperation()) {
+                    addPosition(movePositions, path.getParent(), i);
+                    if (!diff.getToPath().getParent().equals(path.getParent()))
+                        addPosition(movePositions, diff.getToPath().getParent(), i);
+                }
+            }
+            for (Map.Entry<JsonPointer, List<Integer>> entry : positions.entrySet())
+                arrays.put(entry.getKey(), new ArrayShifts(entry.getValue(), diffs));
+            for (Map.Entry<JsonPointer, List<Integer>> entry : movePositions.entrySet())
+                reorderings.put(entry.getKey(), new ArrayShifts(entry.getValue(), diffs));
+        }
+
+        private static void addPosition(Map<JsonPointer, List<Integer>> positions, JsonPointer array, int diffIdx) {
+            List<Integer> arrayPositions = positions.get(array);
+            if (arrayPositions == null) {
+                arrayPositions = new ArrayList<Integer>();
+                positions.put(array, arrayPositions);
+            }
+            arrayPositions.add(diffIdx);
+        }
+
+        /**
+         * Determines whether elements are moved around within the specified array by any of the diffs between
+         * {@code startIdx} and {@code endIdx} (inclusive).
+         */
+        boolean isReordered(JsonPointer array, int startIdx, int endIdx) {
+            ArrayShifts moves = reorderings.get(array);
+            return moves != null && moves.sum(startIdx, endIdx) != 0;
+        }
+
+        /**
+         * Returns the net index shift for elements of the specified array over the diffs between
+         * {@code startIdx} and {@code endIdx} (inclusive): +1 for each #REMOVE, -1 for each #ADD.
+         */
+        int sum(JsonPointer array, int startIdx, int endIdx) {
+            ArrayShifts shifts = arrays.get(array);
+            return shifts != null ? shifts.sum(startIdx, endIdx) : 0;
+        }
+
+        /**
+         * Stops accounting for the diff at the specified position.
+         */
+        void remove(int diffIdx) {
+            if (parents[diffIdx] != null) {
+                arrays.get(parents[diffIdx]).remove(diffIdx);
+                parents[diffIdx] = null;
+            }
+        }
+    }
+
+    private static final class ArrayShifts {
+        private final int[] positions;
+        private final int[] values;
+        private final FenwickTree tree;
+
+        ArrayShifts(List<Integer> diffPositions, List<Diff> diffs) {
+            positions = new int[diffPositions.size()];
+            values = new int[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = diffPositions.get(i);
+                values[i] = Operation.ADD == diffs.get(positions[i]).getOperation() ? -1 : 1;  // moves count as 1
+            }
+            tree = new FenwickTree(values);
+        }
+
+        int sum(int startIdx, int endIdx) {
+            return tree.sum(lowerBound(startIdx), lowerBound(endIdx + 1));
+        }
+
+        void remove(int diffIdx) {
+            int slot = Arrays.binarySearch(positions, diffIdx);
+            tree.add(slot, -values[slot]);
+            values[slot] = 0;
+        }
+
+        // index of the first position not less than the specified diff index
+        private int lowerBound(int diffIdx) {
+            int slot = Arrays.binarySearch(positions, diffIdx);
+            return slot >= 0 ? slot : -slot - 1;
+        }
     }
 }
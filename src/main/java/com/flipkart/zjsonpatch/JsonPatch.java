@@ -16,17 +16,29 @@
 
 package com.flipkart.zjsonpatch;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.NullNode;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.concurrent.Executor;
 
 /**
  * User: gopi.vishwakarma
  * Date: 31/07/14
  */
 public final class JsonPatch {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
     private JsonPatch() {
     }
@@ -46,85 +58,212 @@ public final class JsonPatch {
             return child;
     }
 
-    private static void process(JsonNode patch, JsonPatchProcessor processor, EnumSet<CompatibilityFlags> flags)
-            throws InvalidJsonPatchException {
+    private static JsonPointer parsePointer(String path, JsonPointerCache pointers) {
+        return pointers != null ? pointers.parse(path) : JsonPointer.parse(path);
+    }
+
+    static void process(JsonNode patch, JsonPatchProcessor processor, EnumSet<CompatibilityFlags> flags,
+                        JsonPointerCache pointers) throws InvalidJsonPatchException {
 
         if (!patch.isArray())
             throw new InvalidJsonPatchException("Invalid JSON Patch payload (not an array)");
+        boolean owned = flags.contains(CompatibilityFlags.TRANSFER_PATCH_OWNERSHIP);
         Iterator<JsonNode> operations = patch.iterator();
-        while (operations.hasNext()) {
-            JsonNode jsonNode = operations.next();
-            if (!jsonNode.isObject()) throw new InvalidJsonPatchException("Invalid JSON Patch payload (not an object)");
-            Operation operation = Operation.fromRfcName(getPatchAttr(jsonNode, Constants.OP).textValue());
-            JsonPointer path = JsonPointer.parse(getPatchAttr(jsonNode, Constants.PATH).textValue());
-
-            try {
-                switch (operation) {
-                    case REMOVE: {
-                        processor.remove(path);
-                        break;
-                    }
-
-                    case ADD: {
-                        JsonNode value;
-                        if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
-                            value = getPatchAttr(jsonNode, Constants.VALUE);
-                        else
-                            value = getPatchAttrWithDefault(jsonNode, Constants.VALUE, NullNode.getInstance());
-                        processor.add(path, value.deepCopy());
-                        break;
-                    }
-
-                    case REPLACE: {
-                        JsonNode value;
-                        if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
-                            value = getPatchAttr(jsonNode, Constants.VALUE);
-                        else
-                            value = getPatchAttrWithDefault(jsonNode, Constants.VALUE, NullNode.getInstance());
-                        processor.replace(path, value.deepCopy());
-                        break;
-                    }
-
-                    case MOVE: {
-                        JsonPointer fromPath = JsonPointer.parse(getPatchAttr(jsonNode, Constants.FROM).textValue());
-                        processor.move(fromPath, path);
-                        break;
-                    }
-
-                    case COPY: {
-                        JsonPointer fromPath = JsonPointer.parse(getPatchAttr(jsonNode, Constants.FROM).textValue());
-                        processor.copy(fromPath, path);
-                        break;
-                    }
-
-                    case TEST: {
-                        JsonNode value;
-                        if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
-                            value = getPatchAttr(jsonNode, Constants.VALUE);
-                        else
-                            value = getPatchAttrWithDefault(jsonNode, Constants.VALUE, NullNode.getInstance());
-                        processor.test(path, value.deepCopy());
-                        break;
-                    }
-                }
+        try {
+            while (operations.hasNext())
+                processOperation(operations.next(), processor, flags, pointers, owned);
+        } finally {
+            processor.finish();
+        }
+    }
+
+    /**
+     * Processes the patch read from the specified parser one operation at a time, each of which is
+     * released as soon as it has been processed. Operations are only ever seen by the processor, so their
+     * values are never copied.
+     */
+    static void process(JsonParser patch, JsonPatchProcessor processor, EnumSet<CompatibilityFlags> flags,
+                        JsonPointerCache pointers) throws IOException, InvalidJsonPatchException {
+
+        JsonToken token = patch.currentToken() != null ? patch.currentToken() : patch.nextToken();
+        if (token != JsonToken.START_ARRAY)
+            throw new InvalidJsonPatchException("Invalid JSON Patch payload (not an array)");
+        try {
+            while ((token = patch.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null)
+                    throw new InvalidJsonPatchException("Invalid JSON Patch payload (unexpected end of input)");
+                JsonNode operation = MAPPER.readTree(patch);
+                if (operation == null)
+                    throw new InvalidJsonPatchException("Invalid JSON Patch payload (not an object)");
+                processOperation(operation, processor, flags, pointers, true);
             }
-            catch (JsonPointerEvaluationException e) {
-                throw new JsonPatchApplicationException(e.getMessage(), operation, e.getPath());
+        } finally {
+            processor.finish();
+        }
+    }
+
+    private static void processOperation(JsonNode jsonNode, JsonPatchProcessor processor, EnumSet<CompatibilityFlags> flags,
+                                         JsonPointerCache pointers, boolean owned) throws InvalidJsonPatchException {
+        if (!jsonNode.isObject()) throw new InvalidJsonPatchException("Invalid JSON Patch payload (not an object)");
+        Operation operation = Operation.fromRfcName(getPatchAttr(jsonNode, Constants.OP).textValue());
+        JsonPointer path = parsePointer(getPatchAttr(jsonNode, Constants.PATH).textValue(), pointers);
+
+        try {
+            switch (operation) {
+                case REMOVE: {
+                    processor.remove(path);
+                    break;
+                }
+
+                case ADD: {
+                    JsonNode value;
+                    if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
+                        value = getPatchAttr(jsonNode, Constants.VALUE);
+                    else
+                        value = getPatchAttrWithDefault(jsonNode, Constants.VALUE, NullNode.getInstance());
+                    processor.add(path, owned ? value : value.deepCopy());
+                    break;
+                }
+
+                case REPLACE: {
+                    JsonNode value;
+                    if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
+                        value = getPatchAttr(jsonNode, Constants.VALUE);
+                    else
+                        value = getPatchAttrWithDefault(jsonNode, Constants.VALUE, NullNode.getInstance());
+                    processor.replace(path, owned ? value : value.deepCopy());
+                    break;
+                }
+
+                case MOVE: {
+                    JsonPointer fromPath = parsePointer(getPatchAttr(jsonNode, Constants.FROM).textValue(), pointers);
+                    processor.move(fromPath, path);
+                    break;
+                }
+
+                case COPY: {
+                    JsonPointer fromPath = parsePointer(getPatchAttr(jsonNode, Constants.FROM).textValue(), pointers);
+                    processor.copy(fromPath, path);
+                    break;
+                }
+
+                case TEST: {
+                    JsonNode value;
+                    if (!flags.contains(CompatibilityFlags.MISSING_VALUES_AS_NULLS))
+                        value = getPatchAttr(jsonNode, Constants.VALUE);
+                    else
+                        value = getPatchAttrWithDefault(jsonNode, Constants.VALUE, NullNode.getInstance());
+                    processor.test(path, value);     // only compared, never stored
+                    break;
+                }
             }
         }
+        catch (JsonPointerEvaluationException e) {
+            throw new JsonPatchApplicationException(e.getMessage(), operation, e.getPath());
+        }
+    }
+
+    private static JsonParser parserFor(InputStream in) throws IOException {
+        JsonParser parser = MAPPER.getFactory().createParser(in);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        return parser;
+    }
+
+    private static JsonParser parserFor(Reader reader) throws IOException {
+        JsonParser parser = MAPPER.getFactory().createParser(reader);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        return parser;
+    }
+
+    /**
+     * Validates and parses the specified patch once, for applying it to many documents.
+     *
+     * @throws InvalidJsonPatchException The specified patch is invalid.
+     * @see CompiledJsonPatch
+     * @since 0.4.12
+     */
+    public static CompiledJsonPatch compile(JsonNode patch, EnumSet<CompatibilityFlags> flags) throws InvalidJsonPatchException {
+        return CompiledJsonPatch.compile(patch, flags);
+    }
+
+    public static CompiledJsonPatch compile(JsonNode patch) throws InvalidJsonPatchException {
+        return compile(patch, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Applies the specified patch to a copy of each of the specified documents, in parallel. The patch is
+     * validated and parsed only once, up front.
+     *
+     * @throws InvalidJsonPatchException The specified patch is invalid; no document was processed.
+     * @see CompiledJsonPatch#applyAll(Collection, Executor)
+     * @since 0.4.12
+     */
+    public static BatchResult applyAll(JsonNode patch, Collection<? extends JsonNode> documents, EnumSet<CompatibilityFlags> flags,
+                                       Executor executor) throws InvalidJsonPatchException, InterruptedException {
+        return compile(patch, flags).applyAll(documents, executor);
     }
 
     public static void validate(JsonNode patch, EnumSet<CompatibilityFlags> flags) throws InvalidJsonPatchException {
-        process(patch, NoopProcessor.INSTANCE, flags);
+        validate(patch, flags, null);
+    }
+
+    /**
+     * Validates the specified patch, taking the pointers it refers to from the specified cache where possible.
+     *
+     * @param pointers A cache of parsed pointers, or {@code null} to always parse them.
+     * @since 0.4.12
+     */
+    public static void validate(JsonNode patch, EnumSet<CompatibilityFlags> flags, JsonPointerCache pointers) throws InvalidJsonPatchException {
+        process(patch, NoopProcessor.INSTANCE, flags, pointers);
     }
 
     public static void validate(JsonNode patch) throws InvalidJsonPatchException {
         validate(patch, CompatibilityFlags.defaults());
     }
 
+    /**
+     * Validates the patch read from the specified parser, one operation at a time, without ever holding
+     * more than one in memory.
+     *
+     * @see #applyInPlace(JsonParser, JsonNode, EnumSet)
+     * @since 0.4.12
+     */
+    public static void validate(JsonParser patch, EnumSet<CompatibilityFlags> flags) throws IOException, InvalidJsonPatchException {
+        process(patch, NoopProcessor.INSTANCE, flags, null);
+    }
+
+    public static void validate(InputStream patch, EnumSet<CompatibilityFlags> flags) throws IOException, InvalidJsonPatchException {
+        JsonParser parser = parserFor(patch);
+        try {
+            validate(parser, flags);
+        } finally {
+            parser.close();
+        }
+    }
+
+    public static void validate(Reader patch, EnumSet<CompatibilityFlags> flags) throws IOException, InvalidJsonPatchException {
+        JsonParser parser = parserFor(patch);
+        try {
+            validate(parser, flags);
+        } finally {
+            parser.close();
+        }
+    }
+
     public static JsonNode apply(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags) throws JsonPatchApplicationException {
+        return apply(patch, source, flags, null);
+    }
+
+    /**
+     * Applies the specified patch to a copy of the specified document, taking the pointers the patch refers
+     * to from the specified cache where possible.
+     *
+     * @param pointers A cache of parsed pointers, or {@code null} to always parse them.
+     * @since 0.4.12
+     */
+    public static JsonNode apply(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags, JsonPointerCache pointers) throws JsonPatchApplicationException {
         CopyingApplyProcessor processor = new CopyingApplyProcessor(source, flags);
-        process(patch, processor, flags);
+        process(patch, processor, flags, pointers);
         return processor.result();
     }
 
@@ -132,12 +271,243 @@ public final class JsonPatch {
         return apply(patch, source, CompatibilityFlags.defaults());
     }
 
+    /**
+     * Applies the patch read from the specified parser to a copy of the specified document, one operation
+     * at a time.
+     *
+     * @see #applyInPlace(JsonParser, JsonNode, EnumSet)
+     * @since 0.4.12
+     */
+    public static JsonNode apply(JsonParser patch, JsonNode source, EnumSet<CompatibilityFlags> flags) throws IOException, JsonPatchApplicationException {
+        CopyingApplyProcessor processor = new CopyingApplyProcessor(source, flags);
+        process(patch, processor, flags, null);
+        return processor.result();
+    }
+
+    public static JsonNode apply(InputStream patch, JsonNode source, EnumSet<CompatibilityFlags> flags) throws IOException, JsonPatchApplicationException {
+        JsonParser parser = parserFor(patch);
+        try {
+            return apply(parser, source, flags);
+        } finally {
+            parser.close();
+        }
+    }
+
+    public static JsonNode apply(Reader patch, JsonNode source, EnumSet<CompatibilityFlags> flags) throws IOException, JsonPatchApplicationException {
+        JsonParser parser = parserFor(patch);
+        try {
+            return apply(parser, source, flags);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Applies the specified patch without modifying the specified document, like {@link #apply}, but
+     * instead of copying the whole document up front, only copies the objects and arrays on the way to
+     * each modified node. The cost is thus proportional to the size of the patch rather than that of the
+     * document.
+     *
+     * <p>The result shares all unmodified parts with the source document: neither may be modified
+     * afterwards, unless a {@link JsonNode#deepCopy() deep copy} is made first.
+     *
+     * @since 0.4.12
+     */
+    public static JsonNode applyCopyOnWrite(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags) throws JsonPatchApplicationException {
+        CopyOnWriteApplyProcessor processor = new CopyOnWriteApplyProcessor(source, flags);
+        process(patch, processor, flags, null);
+        return processor.result();
+    }
+
+    public static JsonNode applyCopyOnWrite(JsonNode patch, JsonNode source) throws JsonPatchApplicationException {
+        return applyCopyOnWrite(patch, source, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Applies the specified patch to the document read from the specified parser, writing the result to the
+     * specified generator, in a single pass and without building the document as a tree.
+     *
+     * <p>Only the parts of the document the operations refer to are read as trees, one at a time: the
+     * object members and array elements they replace, remove or test, and the arrays they insert into or
+     * remove from, unless they refer to the elements of those in order. Everything else is copied straight
+     * through. Operations are applied with the usual semantics, except that object members added where none
+     * existed come last, in the order they were added, and that a value may only be moved or copied to a
+     * location further on in the document, or within the same buffered part.
+     *
+     * <p>The patch is validated up front, but the document is only found not to fit it along the way:
+     * when this method throws a {@link JsonPatchApplicationException}, part of the result has already been
+     * written. Since operations are applied as the parts of the document they refer to come up rather than
+     * in patch order, the failure reported for a patch with several operations that don't fit the document
+     * isn't necessarily that of the first of them, which {@link #apply} would report. The parser may either
+     * be positioned on the start of the document or not have been advanced yet; it's left positioned on the
+     * end of the document. The generator is flushed, but not closed.
+     *
+     * @throws InvalidJsonPatchException The specified patch is invalid; nothing has been read or written.
+     * @throws JsonPatchApplicationException The patch can't be applied to the document, or a value would
+     *         have to be moved or copied back to a location already written.
+     * @since 0.4.12
+     */
+    public static void applyStreaming(JsonNode patch, JsonParser source, JsonGenerator target,
+                                      EnumSet<CompatibilityFlags> flags) throws IOException, JsonPatchApplicationException {
+        StreamingApplyProcessor processor = new StreamingApplyProcessor(flags);
+        process(patch, processor, flags, null);
+        processor.apply(source, target);
+        target.flush();
+    }
+
+    /**
+     * Applies the specified patch to the document read from the specified stream, writing the result to the
+     * specified stream as UTF-8 encoded JSON. Neither stream is closed.
+     *
+     * @see #applyStreaming(JsonNode, JsonParser, JsonGenerator, EnumSet)
+     * @since 0.4.12
+     */
+    public static void applyStreaming(JsonNode patch, InputStream source, OutputStream target,
+                                      EnumSet<CompatibilityFlags> flags) throws IOException, JsonPatchApplicationException {
+        JsonParser parser = parserFor(source);
+        try {
+            JsonGenerator generator = MAPPER.getFactory().createGenerator(target, JsonEncoding.UTF8);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            applyStreaming(patch, parser, generator, flags);
+            generator.close();
+        } finally {
+            parser.close();
+        }
+    }
+
     public static void applyInPlace(JsonNode patch, JsonNode source) {
         applyInPlace(patch, source, CompatibilityFlags.defaults());
     }
 
     public static void applyInPlace(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags) {
+        applyInPlace(patch, source, flags, null);
+    }
+
+    /**
+     * Applies the specified patch to the specified document in place, taking the pointers the patch refers
+     * to from the specified cache where possible.
+     *
+     * @param pointers A cache of parsed pointers, or {@code null} to always parse them.
+     * @since 0.4.12
+     */
+    public static void applyInPlace(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags, JsonPointerCache pointers) {
         InPlaceApplyProcessor processor = new InPlaceApplyProcessor(source, flags);
-        process(patch, processor, flags);
+        process(patch, processor, flags, pointers);
+    }
+
+    /**
+     * Applies the specified patch in place to the document of the specified index, resolving the pointers
+     * the patch refers to through the index, and keeping the index up to date. If the patch replaces the
+     * document root, the new root is available from {@link PathIndex#getDocument()}.
+     *
+     * @throws JsonPatchApplicationException The patch can't be applied to the document, which is left
+     *         partially patched; the index is up to date all the same.
+     * @since 0.4.12
+     */
+    public static void applyInPlace(JsonNode patch, PathIndex index, EnumSet<CompatibilityFlags> flags) {
+        process(patch, new InPlaceApplyProcessor(index, flags), flags, null);
+    }
+
+    public static void applyInPlace(JsonNode patch, PathIndex index) {
+        applyInPlace(patch, index, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Applies the patch read from the specified parser to the specified document in place, without ever
+     * building the patch as a tree: each operation is read, applied and released before the next one is
+     * read, so memory use doesn't grow with the size of the patch. Since the values read are used by
+     * nothing else, they're inserted without being copied.
+     *
+     * <p>The parser may either be positioned on the start of the patch or not have been advanced yet; it's
+     * left positioned on the end of the patch, and isn't closed.
+     *
+     * @since 0.4.12
+     */
+    public static void applyInPlace(JsonParser patch, JsonNode source, EnumSet<CompatibilityFlags> flags) throws IOException, JsonPatchApplicationException {
+        process(patch, new InPlaceApplyProcessor(source, flags), flags, null);
+    }
+
+    /**
+     * Applies the patch read from the specified stream, as UTF-8 encoded JSON, to the specified document in
+     * place. The stream isn't closed.
+     *
+     * @see #applyInPlace(JsonParser, JsonNode, EnumSet)
+     * @since 0.4.12
+     */
+    public static void applyInPlace(InputStream patch, JsonNode source, EnumSet<CompatibilityFlags> flags) throws IOException, JsonPatchApplicationException {
+        JsonParser parser = parserFor(patch);
+        try {
+            applyInPlace(parser, source, flags);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Applies the patch read from the specified reader to the specified document in place. The reader isn't
+     * closed.
+     *
+     * @see #applyInPlace(JsonParser, JsonNode, EnumSet)
+     * @since 0.4.12
+     */
+    public static void applyInPlace(Reader patch, JsonNode source, EnumSet<CompatibilityFlags> flags) throws IOException, JsonPatchApplicationException {
+        JsonParser parser = parserFor(patch);
+        try {
+            applyInPlace(parser, source, flags);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Applies the specified patch to the specified document in place, as a whole or not at all: if an
+     * operation fails (or turns out to be invalid), the modifications made by the preceding operations are
+     * reverted before the exception is thrown, leaving the document as it was.
+     *
+     * <p>Unlike {@link #apply}, this doesn't copy the document. Instead, the value each operation displaces
+     * is recorded as it's applied, which costs memory proportional to the size of the patch only.
+     *
+     * @since 0.4.12
+     */
+    public static void applyInPlaceAtomically(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags) {
+        InPlaceApplyProcessor processor = new InPlaceApplyProcessor(source, flags);
+        processor.beginTransaction();
+        boolean applied = false;
+        try {
+            process(patch, processor, flags, null);
+            applied = true;
+        } finally {
+            // Errors too, e.g. a stack overflow on a deeply nested value
+            if (!applied)
+                processor.rollback();
+        }
+    }
+
+    public static void applyInPlaceAtomically(JsonNode patch, JsonNode source) {
+        applyInPlaceAtomically(patch, source, CompatibilityFlags.defaults());
+    }
+
+    /**
+     * Applies the specified patch to the specified document in place, and returns the patch undoing it.
+     *
+     * <p>The inverse patch is put together from the values each operation displaces as it's applied, at a
+     * cost proportional to the size of the patch, rather than by diffing the document before and after.
+     * Applying it to the patched document restores the original, except possibly for the order of object
+     * fields. It shares the displaced values with nothing else.
+     *
+     * @return The inverse patch.
+     * @throws JsonPatchApplicationException The patch can't be applied to the specified document, which is
+     *         left partially patched (see {@link #applyInPlaceAtomically}).
+     * @since 0.4.12
+     */
+    public static JsonNode applyInPlaceAndInvert(JsonNode patch, JsonNode source, EnumSet<CompatibilityFlags> flags) {
+        InPlaceApplyProcessor processor = new InPlaceApplyProcessor(source, flags);
+        processor.recordInverse();
+        process(patch, processor, flags, null);
+        return processor.inverse();
+    }
+
+    public static JsonNode applyInPlaceAndInvert(JsonNode patch, JsonNode source) {
+        return applyInPlaceAndInvert(patch, source, CompatibilityFlags.defaults());
     }
 }
@@ -25,4 +25,10 @@ interface JsonPatchProcessor {
     void move(JsonPointer fromPath, JsonPointer toPath) throws JsonPointerEvaluationException;
     void copy(JsonPointer fromPath, JsonPointer toPath) throws JsonPointerEvaluationException;
     void test(JsonPointer path, JsonNode value) throws JsonPointerEvaluationException;
+
+    /**
+     * Completes any work deferred by the preceding operations. Called once all operations have been
+     * processed, or processing has been stopped by an exception.
+     */
+    void finish();
 }
@@ -3,11 +3,8 @@ package com.flipkart.zjsonpatch;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Implements RFC 6901 (JSON Pointer)
@@ -36,16 +33,27 @@ import java.util.regex.Pattern;
  *
  * <p>Instances of {@link JsonPointer} and its constituent {@link RefToken}s are <b>immutable</b>.
  *
+ * <p>Internally, a pointer is a link to its parent plus its last reference token, so that appending a
+ * token takes constant time and pointers to siblings share their common prefix. The flat array of tokens
+ * is only built when a pointer is evaluated or decomposed.
+ *
  * @since 0.4.8
  */
-class JsonPointer {
-    private final RefToken[] tokens;
+public class JsonPointer {
+    private final JsonPointer parent;   // null for root pointers
+    private final RefToken token;       // null for root pointers
+    private final int depth;
+    private volatile RefToken[] tokens; // built on demand
+    private int hash;                   // 0 until computed
+    private String string;              // null until rendered
 
     /** A JSON pointer representing the root node of a JSON document */
-    public final static JsonPointer ROOT = new JsonPointer(new RefToken[] {});
+    public final static JsonPointer ROOT = new JsonPointer(null, null);
 
-    private JsonPointer(RefToken[] tokens) {
-        this.tokens = tokens;
+    private JsonPointer(JsonPointer parent, RefToken token) {
+        this.parent = parent;
+        this.token = token;
+        this.depth = parent == null ? 0 : parent.depth + 1;
     }
 
     /**
@@ -54,7 +62,8 @@ class JsonPointer {
      * @param tokens The list of reference tokens from which to construct the new pointer. This list is not modified.
      */
     public JsonPointer(List<RefToken> tokens) {
-        this.tokens = tokens.toArray(new RefToken[0]);
+        this(tokens.isEmpty() ? null : ROOT.append(tokens.subList(0, tokens.size() - 1)),
+                tokens.isEmpty() ? null : tokens.get(tokens.size() - 1));
     }
 
     /**
@@ -65,47 +74,22 @@ class JsonPointer {
      * @throws IllegalArgumentException The specified JSON Pointer is invalid.
      */
     public static JsonPointer parse(String path) throws IllegalArgumentException {
-        StringBuilder reftoken = null;
-        List<RefToken> result = new ArrayList<RefToken>();
-
-        for (int i = 0; i < path.length(); ++i) {
-            char c = path.charAt(i);
-
-            // Require leading slash
-            if (i == 0) {
-                if (c != '/') throw new IllegalArgumentException("Missing leading slash");
-                reftoken = new StringBuilder();
-                continue;
-            }
-
-            switch (c) {
-                // Escape sequences
-                case '~':
-                    switch (path.charAt(++i)) {
-                        case '0': reftoken.append('~'); break;
-                        case '1': reftoken.append('/'); break;
-                        default:
-                            throw new IllegalArgumentException("Invalid escape sequence ~" + path.charAt(i) + " at index " + i);
-                    }
-                    break;
-
-                // New reftoken
-                case '/':
-                    result.add(new RefToken(reftoken.toString()));
-                    reftoken.setLength(0);
-                    break;
-
-                default:
-                    reftoken.append(c);
-                    break;
-            }
-        }
-
-        if (reftoken == null)
+        if (path.length() == 0)
             return ROOT;
-
-        result.add(RefToken.parse(reftoken.toString()));
-        return new JsonPointer(result);
+        // Require leading slash
+        if (path.charAt(0) != '/') throw new IllegalArgumentException("Missing leading slash");
+
+        JsonPointer result = ROOT;
+        int start = 1;
+        while (true) {
+            int end = path.indexOf('/', start);
+            if (end < 0)
+                end = path.length();
+            result = result.append(new RefToken(RefToken.decode(path, start, end, true)));
+            if (end == path.length())
+                return result;
+            start = end + 1;
+        }
     }
 
     /**
@@ -113,7 +97,7 @@ class JsonPointer {
      * @return {@code true} if this pointer represents the root node, {@code false} otherwise.
      */
     public boolean isRoot() {
-        return tokens.length == 0;
+        return depth == 0;
     }
 
     /**
@@ -123,9 +107,7 @@ class JsonPointer {
      * @return The new {@link JsonPointer} instance.
      */
     JsonPointer append(String field) {
-        RefToken[] newTokens = Arrays.copyOf(tokens, tokens.length + 1);
-        newTokens[tokens.length] = new RefToken(field);
-        return new JsonPointer(newTokens);
+        return append(new RefToken(field));
     }
 
     /**
@@ -138,9 +120,45 @@ class JsonPointer {
         return append(Integer.toString(index));
     }
 
+    /**
+     * Creates a new JSON pointer by appending the specified reference token to this instance.
+     */
+    JsonPointer append(RefToken token) {
+        return new JsonPointer(this, token);
+    }
+
+    private JsonPointer append(List<RefToken> tokens) {
+        JsonPointer result = this;
+        for (RefToken token : tokens)
+            result = result.append(token);
+        return result;
+    }
+
     /** Returns the number of reference tokens comprising this instance. */
     int size() {
-        return tokens.length;
+        return depth;
+    }
+
+    /**
+     * Returns the JSON pointer made up of the first {@code size} reference tokens of this instance.
+     */
+    JsonPointer prefix(int size) {
+        if (size < 0 || size > depth) throw new IndexOutOfBoundsException("Illegal size: " + size);
+        JsonPointer result = this;
+        while (result.depth > size)
+            result = result.parent;
+        return result;
+    }
+
+    private RefToken[] tokens() {
+        RefToken[] result = tokens;
+        if (result == null) {
+            result = new RefToken[depth];
+            for (JsonPointer pointer = this; pointer.depth > 0; pointer = pointer.parent)
+                result[pointer.depth - 1] = pointer.token;
+            tokens = result;
+        }
+        return result;
     }
 
     /**
@@ -151,12 +169,17 @@ class JsonPointer {
      *  representation of this JSON pointer.
      */
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-        for (RefToken token : tokens) {
-            sb.append('/');
-            sb.append(token);
+        String result = string;
+        if (result == null) {
+            StringBuilder sb = new StringBuilder();
+            for (RefToken token : tokens()) {
+                sb.append('/');
+                sb.append(token);
+            }
+            result = sb.toString();
+            string = result;
         }
-        return sb.toString();
+        return result;
     }
 
     /**
@@ -165,7 +188,7 @@ class JsonPointer {
      * @return A list of {@link RefToken}s. Modifications to this list do not affect this instance.
      */
     public List<RefToken> decompose() {
-        return Arrays.asList(tokens.clone());
+        return Arrays.asList(tokens().clone());
     }
 
     /**
@@ -176,8 +199,8 @@ class JsonPointer {
      * @throws IndexOutOfBoundsException The specified index is illegal.
      */
     public RefToken get(int index) throws IndexOutOfBoundsException {
-        if (index < 0 || index >= tokens.length) throw new IndexOutOfBoundsException("Illegal index: " + index);
-        return tokens[index];
+        if (index < 0 || index >= depth) throw new IndexOutOfBoundsException("Illegal index: " + index);
+        return tokens()[index];
     }
 
     /**
@@ -188,7 +211,7 @@ class JsonPointer {
      */
     public RefToken last() {
         if (isRoot()) throw new IllegalStateException("Root pointers contain no reference tokens");
-        return tokens[tokens.length - 1];
+        return token;
     }
 
     /**
@@ -199,13 +222,13 @@ class JsonPointer {
      * @return A {@link JsonPointer} to the parent node.
      */
     public JsonPointer getParent() {
-        return isRoot() ? this : new JsonPointer(Arrays.copyOf(tokens, tokens.length - 1));
+        return isRoot() ? this : parent;
     }
 
     private void error(int atToken, String message, JsonNode document) throws JsonPointerEvaluationException {
         throw new JsonPointerEvaluationException(
                 message,
-                new JsonPointer(Arrays.copyOf(tokens, atToken)),
+                prefix(atToken),
                 document);
     }
 
@@ -221,6 +244,7 @@ class JsonPointer {
      */
     public JsonNode evaluate(final JsonNode document) throws JsonPointerEvaluationException {
         JsonNode current = document;
+        final RefToken[] tokens = tokens();
 
         for (int idx = 0; idx < tokens.length; ++idx) {
             final RefToken token = tokens[idx];
@@ -244,69 +268,160 @@ class JsonPointer {
         return current;
     }
 
+    /**
+     * Resolves the node represented by this instance in the document of the specified index, through the
+     * index; the pointer is indexed if it wasn't yet.
+     *
+     * @param index The index of the document against which to evaluate the JSON pointer.
+     * @return The {@link JsonNode} resolved by evaluating this JSON pointer.
+     * @throws JsonPointerEvaluationException The pointer could not be evaluated.
+     * @see PathIndex
+     * @since 0.4.12
+     */
+    public JsonNode evaluate(final PathIndex index) throws JsonPointerEvaluationException {
+        return index.nodes.resolve(this, index.getDocument());
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
 
         JsonPointer that = (JsonPointer) o;
+        if (depth != that.depth)
+            return false;
 
-        // Probably incorrect - comparing Object[] arrays with Arrays.equals
-        return Arrays.equals(tokens, that.tokens);
+        // Compare tokens back to front, until the pointers share a prefix
+        JsonPointer first = this;
+        JsonPointer second = that;
+        while (first.depth > 0 && first != second) {
+            if (!first.token.equals(second.token))
+                return false;
+            first = first.parent;
+            second = second.parent;
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(tokens);
+        // Same as Arrays.hashCode(tokens()), accumulated back to front until an ancestor's hash is known
+        int result = hash;
+        if (result == 0 && depth > 0) {
+            int multiplier = 1;
+            JsonPointer pointer = this;
+            while (pointer.depth > 0 && pointer.hash == 0) {
+                result += multiplier * pointer.token.hashCode();
+                multiplier *= 31;
+                pointer = pointer.parent;
+            }
+            result += multiplier * (pointer.depth > 0 ? pointer.hash : 1);
+            hash = result;
+        }
+        return depth == 0 ? 1 : result;
     }
 
     /** Represents a single JSON Pointer reference token. */
-    static class RefToken {
-        private String decodedToken;
-        transient private Integer index = null;
+    public static class RefToken {
+        private final String decodedToken;
+        private final int index;            // only meaningful if arrayIndex is set
+        private final boolean arrayIndex;
+        private String encodedToken;        // null until rendered
 
         public RefToken(String decodedToken) {
             if (decodedToken == null) throw new IllegalArgumentException("Token can't be null");
             this.decodedToken = decodedToken;
+            this.index = parseIndex(decodedToken);
+            this.arrayIndex = index != NOT_AN_INDEX;
         }
 
-        private static final Pattern DECODED_TILDA_PATTERN = Pattern.compile("~0");
-        private static final Pattern DECODED_SLASH_PATTERN = Pattern.compile("~1");
-
-        private static String decodePath(Object object) {
-            String path = object.toString(); // see http://tools.ietf.org/html/rfc6901#section-4
-            path = DECODED_SLASH_PATTERN.matcher(path).replaceAll("/");
-            return DECODED_TILDA_PATTERN.matcher(path).replaceAll("~");
+        private static final int NOT_AN_INDEX = -1;
+
+        /**
+         * Parses an array index ({@code -}, {@code 0} or a number without leading zeros that fits an
+         * {@code int}), or returns {@link #NOT_AN_INDEX}.
+         */
+        private static int parseIndex(String token) {
+            int length = token.length();
+            if (length == 0 || length > 10)
+                return NOT_AN_INDEX;
+            char first = token.charAt(0);
+            if (length == 1 && first == '-')
+                return LAST_INDEX;
+            if (first < '0' || first > '9' || (first == '0' && length > 1))
+                return NOT_AN_INDEX;
+
+            long value = 0;
+            for (int i = 0; i < length; i++) {
+                char c = token.charAt(i);
+                if (c < '0' || c > '9')
+                    return NOT_AN_INDEX;
+                value = value * 10 + (c - '0');
+            }
+            return value <= Integer.MAX_VALUE ? (int) value : NOT_AN_INDEX;
         }
 
-        private static final Pattern ENCODED_TILDA_PATTERN = Pattern.compile("~");
-        private static final Pattern ENCODED_SLASH_PATTERN = Pattern.compile("/");
-
-        private static String encodePath(Object object) {
-            String path = object.toString(); // see http://tools.ietf.org/html/rfc6901#section-4
-            path = ENCODED_TILDA_PATTERN.matcher(path).replaceAll("~0");
-            return ENCODED_SLASH_PATTERN.matcher(path).replaceAll("~1");
+        /**
+         * Decodes the escape sequences in the specified part of a string, see
+         * <a href="http://tools.ietf.org/html/rfc6901#section-4">RFC 6901 section 4</a>.
+         *
+         * @param strict Whether to reject invalid escape sequences rather than leave them alone.
+         */
+        static String decode(String encoded, int start, int end, boolean strict) {
+            int tilde = encoded.indexOf('~', start);
+            if (tilde < 0 || tilde >= end)
+                return encoded.substring(start, end);
+
+            StringBuilder decoded = new StringBuilder(end - start);
+            decoded.append(encoded, start, tilde);
+            for (int i = tilde; i < end; i++) {
+                char c = encoded.charAt(i);
+                char next = i + 1 < end ? encoded.charAt(i + 1) : 0;
+                if (c == '~' && (next == '0' || next == '1')) {
+                    decoded.append(next == '0' ? '~' : '/');
+                    i++;
+                } else if (c == '~' && strict) {
+                    throw new IllegalArgumentException("Invalid escape sequence ~" + (i + 1 < end ? String.valueOf(next) : "") + " at index " + (i + 1));
+                } else {
+                    decoded.append(c);
+                }
+            }
+            return decoded.toString();
         }
 
-        private static final Pattern VALID_ARRAY_IND = Pattern.compile("-|0|(?:[1-9][0-9]*)");
+        private static String encode(String decoded) {
+            int length = decoded.length();
+            int i = 0;
+            while (i < length && decoded.charAt(i) != '~' && decoded.charAt(i) != '/')
+                i++;
+            if (i == length)
+                return decoded;
+
+            StringBuilder encoded = new StringBuilder(length + 4);
+            encoded.append(decoded, 0, i);
+            for (; i < length; i++) {
+                char c = decoded.charAt(i);
+                if (c == '~')
+                    encoded.append("~0");
+                else if (c == '/')
+                    encoded.append("~1");
+                else
+                    encoded.append(c);
+            }
+            return encoded.toString();
+        }
 
         public static RefToken parse(String rawToken) {
             if (rawToken == null) throw new IllegalArgumentException("Token can't be null");
-            return new RefToken(decodePath(rawToken));
+            return new RefToken(decode(rawToken, 0, rawToken.length(), false));
         }
 
         public boolean isArrayIndex() {
-            if (index != null) return true;
-            Matcher matcher = VALID_ARRAY_IND.matcher(decodedToken);
-            if (matcher.matches()) {
-                index = matcher.group().equals("-") ? LAST_INDEX : Integer.parseInt(matcher.group());
-                return true;
-            }
-            return false;
+            return arrayIndex;
         }
 
         public int getIndex() {
-            if (!isArrayIndex()) throw new IllegalStateException("Object operation on array target");
+            if (!arrayIndex) throw new IllegalStateException("Object operation on array target");
             return index;
         }
 
@@ -316,7 +431,12 @@ class JsonPointer {
 
         @Override
         public String toString() {
-            return encodePath(decodedToken);
+            String result = encodedToken;
+            if (result == null) {
+                result = encode(decodedToken);
+                encodedToken = result;
+            }
+            return result;
         }
 
         @Override
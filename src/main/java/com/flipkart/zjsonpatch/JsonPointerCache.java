@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of parsed {@link JsonPointer}s, keyed by their string representation, for patches that
+ * keep referring to the same paths.
+ *
+ * <pre>
+ *      JsonPointerCache pointers = new JsonPointerCache(10000);
+ *      for (JsonNode document : documents)
+ *          JsonPatch.applyInPlace(patch, document, CompatibilityFlags.defaults(), pointers);
+ * </pre>
+ *
+ * <p>Instances are thread-safe and meant to be shared. To keep contention low, entries are spread over a
+ * number of independently locked segments, each evicting its least recently used entry when full; the
+ * eviction order is therefore only approximately LRU across the whole cache. Since pointers are immutable,
+ * a cached instance may be handed out any number of times.
+ *
+ * @since 0.4.12
+ */
+public final class JsonPointerCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache holding up to (about) the specified number of pointers.
+     *
+     * @param maximumSize The maximum number of pointers to retain.
+     * @throws IllegalArgumentException The specified size isn't positive.
+     */
+    public JsonPointerCache(int maximumSize) throws IllegalArgumentException {
+        if (maximumSize <= 0) throw new IllegalArgumentException("Maximum size must be positive");
+        int segmentCount = Math.min(SEGMENTS, maximumSize);
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++)
+            // Spread the capacity so that the segments add up to exactly maximumSize
+            segments[i] = new Segment(maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0));
+    }
+
+    /**
+     * Returns the pointer represented by the specified string, parsing it unless it's cached.
+     *
+     * @throws IllegalArgumentException The specified JSON Pointer is invalid.
+     * @see JsonPointer#parse(String)
+     */
+    public JsonPointer parse(String path) throws IllegalArgumentException {
+        Segment segment = segmentFor(path);
+        JsonPointer pointer;
+        synchronized (segment) {
+            pointer = segment.get(path);
+        }
+        if (pointer != null) {
+            hits.incrementAndGet();
+            return pointer;
+        }
+
+        // Parse outside the lock; if another thread got there first, either result will do
+        misses.incrementAndGet();
+        pointer = JsonPointer.parse(path);
+        synchronized (segment) {
+            segment.put(path, pointer);
+        }
+        return pointer;
+    }
+
+    /** Returns the number of lookups that found a cached pointer. */
+    public long hitCount() {
+        return hits.get();
+    }
+
+    /** Returns the number of lookups that had to parse the pointer. */
+    public long missCount() {
+        return misses.get();
+    }
+
+    /** Returns the number of pointers currently cached. */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /** Discards all cached pointers. The hit and miss counts are left alone. */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segmentFor(String path) {
+        int hash = path.hashCode();
+        hash ^= hash >>> 16;
+        return segments[(hash & 0x7fffffff) % segments.length];
+    }
+
+    private static final class Segment extends LinkedHashMap<String, JsonPointer> {
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JsonPointer> eldest) {
+            return size() > capacity;
+        }
+    }
+}
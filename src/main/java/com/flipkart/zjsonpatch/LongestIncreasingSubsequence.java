@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+/**
+ * Longest strictly increasing subsequence of a sequence of integers, computed in O(N log N) time by
+ * patience sorting: {@code tails[l]} holds the index of the smallest value ending an increasing
+ * subsequence of length {@code l + 1}, and each value either extends the longest of those or replaces
+ * the first tail that isn't smaller than it.
+ *
+ * <p>Applied to a permutation (the target position of each source element), the subsequence is a
+ * largest set of elements that are already in the right relative order; every other element has to be
+ * moved, and moving just those is enough.
+ */
+final class LongestIncreasingSubsequence {
+
+    private LongestIncreasingSubsequence() {}
+
+    /**
+     * Finds a longest strictly increasing subsequence of the specified values.
+     *
+     * @param values The sequence to search.
+     * @return Flags marking the members of the subsequence, by index in {@code values}.
+     */
+    static boolean[] mark(final int[] values) {
+        final int[] tails = new int[values.length];
+        final int[] predecessors = new int[values.length];
+        int length = 0;
+
+        for (int i = 0; i < values.length; i++) {
+            // Binary search for the first tail whose value isn't smaller than values[i]
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < values[i])
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            predecessors[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length)
+                length++;
+        }
+
+        final boolean[] members = new boolean[values.length];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = predecessors[i])
+            members[i] = true;
+        return members;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Longest common subsequence of two symbol sequences, computed with the greedy O((N+M)D) algorithm
+ * described in E. Myers, "An O(ND) Difference Algorithm and Its Variations" (1986).
+ *
+ * <p>Elements are compared as plain {@code int} symbols; callers are expected to map equal
+ * elements to equal symbols beforehand, so that the (potentially expensive) element equality is
+ * evaluated once per element rather than once per comparison. The running time is proportional to
+ * the number of edits D rather than to N*M, which makes small changes to large arrays cheap.
+ *
+ * <p>Two variants are offered: {@link #compute} keeps a trace of the search frontier for backtracking,
+ * which costs O(D^2) memory, while {@link #computeInLinearSpace} uses the divide-and-conquer
+ * "middle snake" refinement from the same paper (in the spirit of Hirschberg's algorithm) to stay
+ * within O(N+M) memory at the price of roughly twice the comparisons. Both yield a longest common
+ * subsequence of the same length, but not necessarily the same one when several exist: the greedy
+ * variant follows the choices its forward search made, which depend on parts of the edit graph the
+ * linear-space variant never explores together, so the two don't break ties alike.
+ */
+final class MyersLcs {
+
+    private MyersLcs() {}
+
+    /**
+     * Computes a longest common subsequence of the two specified sequences.
+     *
+     * @param a The first sequence of symbols.
+     * @param b The second sequence of symbols.
+     * @return The symbols of a longest common subsequence of {@code a} and {@code b}, in order.
+     */
+    static int[] compute(final int[] a, final int[] b) {
+        final int n = a.length;
+        final int m = b.length;
+        final int max = n + m;
+
+        // v[k + max] holds the furthest x reached on diagonal k = x - y
+        final int[] v = new int[2 * max + 2];
+        // trace.get(d)[(k + d) / 2] holds v[k] as it stood after d edits, for backtracking
+        final List<int[]> trace = new ArrayList<int[]>();
+
+        for (int d = 0; d <= max; d++) {
+            final int[] snapshot = new int[d + 1];
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[k - 1 + max] < v[k + 1 + max]))
+                    x = v[k + 1 + max];         // move down (insertion from b)
+                else
+                    x = v[k - 1 + max] + 1;     // move right (deletion from a)
+                int y = x - k;
+                while (x < n && y < m && a[x] == b[y]) {
+                    x++;
+                    y++;
+                }
+                v[k + max] = x;
+                snapshot[(k + d) / 2] = x;
+                if (x >= n && y >= m) {
+                    trace.add(snapshot);
+                    return backtrack(a, n, m, trace);
+                }
+            }
+            trace.add(snapshot);
+        }
+        throw new IllegalStateException("Edit distance exceeds sequence lengths");
+    }
+
+    private static int[] backtrack(final int[] a, int x, int y, final List<int[]> trace) {
+        final int[] reversed = new int[Math.min(x, y)];
+        int length = 0;
+
+        for (int d = trace.size() - 1; d > 0; d--) {
+            final int[] previous = trace.get(d - 1);
+            final int k = x - y;
+            final int prevK;
+            if (k == -d || (k != d && valueAt(previous, d - 1, k - 1) < valueAt(previous, d - 1, k + 1)))
+                prevK = k + 1;
+            else
+                prevK = k - 1;
+            final int prevX = valueAt(previous, d - 1, prevK);
+            final int prevY = prevX - prevK;
+
+            // Walk back the snake that followed the edit
+            final int snakeStart = prevK == k + 1 ? prevX : prevX + 1;
+            while (x > snakeStart) {
+                reversed[length++] = a[--x];
+                y--;
+            }
+            x = prevX;
+            y = prevY;
+        }
+        // Whatever remains is the initial snake on diagonal 0
+        while (x > 0 && y > 0) {
+            reversed[length++] = a[--x];
+            y--;
+        }
+
+        final int[] result = new int[length];
+        for (int i = 0; i < length; i++)
+            result[i] = reversed[length - 1 - i];
+        return result;
+    }
+
+    private static int valueAt(final int[] snapshot, final int d, final int k) {
+        return snapshot[(k + d) / 2];
+    }
+
+    /**
+     * Computes a longest common subsequence of the two specified sequences using O(N+M) memory.
+     *
+     * @param a The first sequence of symbols.
+     * @param b The second sequence of symbols.
+     * @return The symbols of a longest common subsequence of {@code a} and {@code b}, in order.
+     */
+    static int[] computeInLinearSpace(final int[] a, final int[] b) {
+        final int max = a.length + b.length;
+        final LinearSpaceSearch search = new LinearSpaceSearch(a, b, new int[2 * max + 3], new int[2 * max + 3]);
+        search.lcs(0, a.length, 0, b.length);
+
+        final int[] result = new int[search.length];
+        System.arraycopy(search.result, 0, result, 0, search.length);
+        return result;
+    }
+
+    private static final class LinearSpaceSearch {
+        private final int[] a;
+        private final int[] b;
+        // Forward and backward frontiers, shared by all recursion levels (each level is done with
+        // them before it recurses)
+        private final int[] forward;
+        private final int[] backward;
+        private final int offset;
+        private final int[] result;
+        private int length = 0;
+
+        // Output of findMiddleSnake: the snake runs from (snakeX, snakeY) to (snakeU, snakeV)
+        private int snakeX;
+        private int snakeY;
+        private int snakeU;
+        private int snakeV;
+
+        LinearSpaceSearch(int[] a, int[] b, int[] forward, int[] backward) {
+            this.a = a;
+            this.b = b;
+            this.forward = forward;
+            this.backward = backward;
+            this.offset = forward.length / 2;
+            this.result = new int[Math.min(a.length, b.length)];
+        }
+
+        void lcs(int aLo, int aHi, int bLo, int bHi) {
+            // Common prefixes and suffixes are always part of some LCS; peeling them off also
+            // guarantees that any remaining non-empty problem needs at least two edits
+            int prefix = 0;
+            while (aLo + prefix < aHi && bLo + prefix < bHi && a[aLo + prefix] == b[bLo + prefix])
+                prefix++;
+            for (int i = 0; i < prefix; i++)
+                result[length++] = a[aLo + i];
+            aLo += prefix;
+            bLo += prefix;
+
+            int suffix = 0;
+            while (aLo < aHi - suffix && bLo < bHi - suffix && a[aHi - suffix - 1] == b[bHi - suffix - 1])
+                suffix++;
+            aHi -= suffix;
+            bHi -= suffix;
+
+            if (aLo < aHi && bLo < bHi) {
+                findMiddleSnake(aLo, aHi, bLo, bHi);
+                final int x = snakeX, y = snakeY, u = snakeU, v = snakeV;
+                lcs(aLo, x, bLo, y);
+                for (int i = x; i < u; i++)
+                    result[length++] = a[i];
+                lcs(u, aHi, v, bHi);
+            }
+
+            for (int i = 0; i < suffix; i++)
+                result[length++] = a[aHi + i];
+        }
+
+        private void findMiddleSnake(int aLo, int aHi, int bLo, int bHi) {
+            final int n = aHi - aLo;
+            final int m = bHi - bLo;
+            final int delta = n - m;
+            final boolean odd = (delta & 1) != 0;
+            final int maxD = (n + m + 1) / 2;
+
+            // forward[k + offset] is the furthest x on diagonal k, counting from (aLo, bLo);
+            // backward[c + offset] is the furthest distance from (aHi, bHi) on reverse diagonal c
+            forward[1 + offset] = 0;
+            backward[1 + offset] = 0;
+
+            for (int d = 0; d <= maxD; d++) {
+                for (int k = -d; k <= d; k += 2) {
+                    int x;
+                    if (k == -d || (k != d && forward[k - 1 + offset] < forward[k + 1 + offset]))
+                        x = forward[k + 1 + offset];
+                    else
+                        x = forward[k - 1 + offset] + 1;
+                    int y = x - k;
+                    final int startX = x, startY = y;
+                    while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                        x++;
+                        y++;
+                    }
+                    forward[k + offset] = x;
+
+                    final int c = delta - k;
+                    if (odd && c >= -(d - 1) && c <= d - 1 && x + backward[c + offset] >= n) {
+                        setSnake(aLo + startX, bLo + startY, aLo + x, bLo + y);
+                        return;
+                    }
+                }
+
+                for (int c = -d; c <= d; c += 2) {
+                    int x;
+                    if (c == -d || (c != d && backward[c - 1 + offset] < backward[c + 1 + offset]))
+                        x = backward[c + 1 + offset];
+                    else
+                        x = backward[c - 1 + offset] + 1;
+                    int y = x - c;
+                    final int startX = x, startY = y;
+                    while (x < n && y < m && a[aHi - x - 1] == b[bHi - y - 1]) {
+                        x++;
+                        y++;
+                    }
+                    backward[c + offset] = x;
+
+                    final int k = delta - c;
+                    if (!odd && k >= -d && k <= d && x + forward[k + offset] >= n) {
+                        setSnake(aHi - x, bHi - y, aHi - startX, bHi - startY);
+                        return;
+                    }
+                }
+            }
+            throw new IllegalStateException("No middle snake found");
+        }
+
+        private void setSnake(int x, int y, int u, int v) {
+            snakeX = x;
+            snakeY = y;
+            snakeU = u;
+            snakeV = v;
+        }
+    }
+}
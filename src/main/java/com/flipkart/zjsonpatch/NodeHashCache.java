@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Caches structural hashes of container nodes (Merkle-style: each hash is derived from the hashes of
+ * the node's children), keyed by node identity.
+ *
+ * <p>{@link JsonNode#hashCode()} and {@link JsonNode#equals(Object)} both walk the entire subtree on
+ * every call, which makes repeated comparisons of the same nodes during a diff expensive. With this
+ * cache every subtree is hashed once, after which two nodes with different hashes are known to differ
+ * without looking at their contents; only nodes with equal hashes are compared in depth.
+ *
+ * <p>The cache assumes that the nodes it has seen are not modified while it is in use; an instance is
+ * meant to live for the duration of a single diff.
+ */
+final class NodeHashCache {
+    private final Map<JsonNode, Integer> hashes = new IdentityHashMap<JsonNode, Integer>();
+
+    /**
+     * Returns the structural hash of the specified node. Equal nodes are guaranteed to have equal hashes.
+     */
+    int hash(JsonNode node) {
+        if (!node.isContainerNode())
+            return node.hashCode();
+
+        Integer cached = hashes.get(node);
+        if (cached != null)
+            return cached;
+
+        int hash;
+        if (node.isArray()) {
+            hash = 1;
+            for (int i = 0; i < node.size(); i++)
+                hash = 31 * hash + hash(node.get(i));
+        } else {
+            // Object equality doesn't depend on field order, so neither may the hash
+            hash = 0;
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                hash += field.getKey().hashCode() ^ hash(field.getValue());
+            }
+        }
+        hashes.put(node, hash);
+        return hash;
+    }
+
+    /**
+     * Determines whether the specified nodes are equal, in the sense of {@link JsonNode#equals(Object)}.
+     */
+    boolean equal(JsonNode first, JsonNode second) {
+        if (first == second)
+            return true;
+        if (first == null || second == null)
+            return false;
+        return hash(first) == hash(second) && first.equals(second);
+    }
+
+    /**
+     * Wraps the specified node so that it can be used as a hash-based map key, with the hash and equality
+     * semantics of this cache.
+     */
+    Key key(JsonNode node) {
+        return new Key(node);
+    }
+
+    final class Key {
+        private final JsonNode node;
+        private final int hash;
+
+        private Key(JsonNode node) {
+            this.node = node;
+            this.hash = hash(node);
+        }
+
+        JsonNode node() {
+            return node;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return hash == that.hash && equal(node, that.node);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
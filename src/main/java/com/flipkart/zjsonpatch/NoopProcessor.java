@@ -33,5 +33,6 @@ public class NoopProcessor implements JsonPatchProcessor {
     @Override public void move(JsonPointer fromPath, JsonPointer toPath) {}
     @Override public void copy(JsonPointer fromPath, JsonPointer toPath) {}
     @Override public void test(JsonPointer path, JsonNode value) {}
+    @Override public void finish() {}
 
 }
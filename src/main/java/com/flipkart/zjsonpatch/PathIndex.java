@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A JSON document together with an index of its nodes by pointer, for long-lived documents that are
+ * patched and queried often.
+ *
+ * <pre>
+ *      PathIndex index = new PathIndex(document);
+ *      for (JsonNode patch : patches)
+ *          JsonPatch.applyInPlace(patch, index, CompatibilityFlags.defaults());
+ *      JsonNode node = JsonPointer.parse("/a/0/b").{@link JsonPointer#evaluate(PathIndex) evaluate}(index);
+ * </pre>
+ *
+ * <p>Evaluating a pointer against the index, or applying a patch through it, looks up the nodes the
+ * pointers refer to in a hash map instead of walking to them from the root. Pointers are indexed the first
+ * time they are evaluated, along with their prefixes. The index is kept up to date as patches modify the
+ * document: nodes that are replaced or removed are dropped from it, while array elements shifted by an
+ * insertion or a removal and moved values are indexed at their new location. The index thus grows with
+ * the number of distinct locations referred to, not with the size of the document.
+ *
+ * <p>The document must only be modified through {@link JsonPatch#applyInPlace(JsonNode, PathIndex, java.util.EnumSet)}
+ * or {@link CompiledJsonPatch#applyInPlace(PathIndex)} while it's indexed; other modifications leave the
+ * index out of date. Instances are not thread-safe.
+ *
+ * @since 0.4.12
+ */
+public final class PathIndex {
+    final ResolvedNodeCache nodes = new ResolvedNodeCache(true);
+    private JsonNode document;
+
+    /**
+     * Creates an index over the specified document, which is modified in place by patches applied through
+     * the index.
+     */
+    public PathIndex(JsonNode document) {
+        if (document == null) throw new IllegalArgumentException("Document can't be null");
+        this.document = document;
+    }
+
+    /**
+     * Returns the indexed document. This is the document the index was created with unless a patch replaced
+     * the document root.
+     */
+    public JsonNode getDocument() {
+        return document;
+    }
+
+    void setDocument(JsonNode document) {
+        this.document = document;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the nodes that pointers resolve to in a document being modified, so that operations sharing a
+ * parent don't each walk to it from the root.
+ *
+ * <p>Entries are indexed by pointer, making a hit a single hash lookup, and are also linked into a trie
+ * mirroring the document, so that the entries below a modified node are found without scanning the rest.
+ * The cache has to be told about every modification of the document: when the child of a node is
+ * replaced, added or removed, everything cached below that child is dropped.
+ *
+ * <p>Nodes that merely change location, i.e. array elements shifted by an insertion or a removal and
+ * moved values, are either dropped as well or, for a cache that outlives a single patch (see
+ * {@link PathIndex}), re-keyed to their new location. The latter costs time proportional to the number of
+ * entries moved on every such modification.
+ */
+final class ResolvedNodeCache {
+    private final Map<JsonPointer, Entry> entries = new HashMap<JsonPointer, Entry>();
+    private final boolean retainMoved;
+
+    /**
+     * @param retainMoved Whether to re-key the entries of nodes that change location, rather than drop
+     *                    them.
+     */
+    ResolvedNodeCache(boolean retainMoved) {
+        this.retainMoved = retainMoved;
+    }
+
+    /**
+     * Returns the node the specified pointer resolves to in the specified document, evaluating the
+     * pointer unless it's cached.
+     *
+     * @throws JsonPointerEvaluationException The pointer could not be evaluated; nothing is cached.
+     */
+    JsonNode resolve(JsonPointer path, JsonNode document) throws JsonPointerEvaluationException {
+        Entry entry = entries.get(path);
+        if (entry != null && entry.node != null)
+            return entry.node;
+
+        JsonNode node = path.evaluate(document);
+        entryFor(path).node = node;
+        return node;
+    }
+
+    /**
+     * Records that the specified child of the node at the specified location was replaced, added or
+     * removed, without affecting its siblings.
+     */
+    void childReplaced(JsonPointer parent, JsonPointer.RefToken child) {
+        Entry entry = entries.get(parent);
+        if (entry != null && entry.children != null) {
+            Entry removed = entry.children.remove(child);
+            if (removed != null)
+                unindex(removed);
+        }
+    }
+
+    /**
+     * Records that an element was inserted into the array at the specified location, at the specified
+     * index.
+     */
+    void elementInserted(JsonPointer array, int index) {
+        shift(array, index, 1);
+    }
+
+    /**
+     * Records that the element at the specified index was removed from the array at the specified
+     * location.
+     */
+    void elementRemoved(JsonPointer array, int index) {
+        childReplaced(array, new JsonPointer.RefToken(Integer.toString(index)));
+        shift(array, index + 1, -1);
+    }
+
+    /**
+     * Takes the entries of the specified node and everything below it out of the cache, ahead of the node
+     * being moved; see {@link #attach}.
+     *
+     * @return The detached entries, or {@code null} if there are none or moved nodes aren't retained.
+     */
+    Entry detach(JsonPointer path) {
+        if (!retainMoved || path.isRoot())
+            return null;
+        Entry parent = entries.get(path.getParent());
+        Entry entry = parent != null && parent.children != null ? parent.children.remove(path.last()) : null;
+        if (entry != null)
+            unindex(entry);
+        return entry;
+    }
+
+    /**
+     * Puts back entries taken out by {@link #detach}, at the specified location the node was moved to.
+     */
+    void attach(JsonPointer path, Entry entry) {
+        if (entry == null)
+            return;
+        if (path.isRoot()) {
+            entries.clear();
+        } else {
+            childReplaced(path.getParent(), path.last());
+            children(entryFor(path.getParent())).put(path.last(), entry);
+        }
+        reindex(entry, path);
+    }
+
+    private void shift(JsonPointer array, int fromIndex, int by) {
+        Entry entry = entries.get(array);
+        if (entry == null || entry.children == null)
+            return;
+        List<Entry> shifted = new ArrayList<Entry>();
+        Iterator<Map.Entry<JsonPointer.RefToken, Entry>> children = entry.children.entrySet().iterator();
+        while (children.hasNext()) {
+            Map.Entry<JsonPointer.RefToken, Entry> child = children.next();
+            if (child.getKey().isArrayIndex() && child.getKey().getIndex() >= fromIndex) {
+                unindex(child.getValue());
+                children.remove();
+                shifted.add(child.getValue());
+            }
+        }
+        if (retainMoved) {
+            // All shifted entries are out of the way before any is put back, so none overwrites another
+            for (Entry child : shifted) {
+                JsonPointer path = array.append(child.path.last().getIndex() + by);
+                entry.children.put(path.last(), child);
+                reindex(child, path);
+            }
+        }
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    private Entry entryFor(JsonPointer path) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            entry = new Entry(path);
+            if (!path.isRoot()) {
+                children(entryFor(path.getParent())).put(path.last(), entry);
+            }
+            entries.put(path, entry);
+        }
+        return entry;
+    }
+
+    private static Map<JsonPointer.RefToken, Entry> children(Entry entry) {
+        if (entry.children == null)
+            entry.children = new HashMap<JsonPointer.RefToken, Entry>();
+        return entry.children;
+    }
+
+    private void unindex(Entry entry) {
+        entries.remove(entry.path);
+        if (entry.children != null)
+            for (Entry child : entry.children.values())
+                unindex(child);
+    }
+
+    private void reindex(Entry entry, JsonPointer path) {
+        entry.path = path;
+        entries.put(path, entry);
+        if (entry.children != null)
+            for (Map.Entry<JsonPointer.RefToken, Entry> child : entry.children.entrySet())
+                reindex(child.getValue(), path.append(child.getKey()));
+    }
+
+    static final class Entry {
+        private JsonPointer path;
+        private JsonNode node;                              // null if only a descendant was resolved
+        private Map<JsonPointer.RefToken, Entry> children;  // null until a descendant is resolved
+
+        Entry(JsonPointer path) {
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,570 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies a patch to a document as it's being read from a parser, writing the result to a generator, in a
+ * single pass and without ever building the document as a tree.
+ *
+ * <p>The operations are first collected, then each is assigned the subtree ("scope") it affects: the array
+ * for operations inserting or removing array elements (which shift the following ones), otherwise the
+ * object member or array element it refers to. Scopes nested in other scopes are merged into them, so that
+ * the remaining ones are disjoint and their operations independent of each other. While the document is
+ * copied from the parser to the generator, each scope is read as a tree when it comes up, patched in place
+ * with its operations, in patch order, and written out; everything else is copied token by token. Scopes
+ * thus have their operations applied in document order, so of several failing operations, the one that
+ * fails first needn't be the first in the patch.
+ *
+ * <p>An array whose operations only refer to its elements, in order, isn't read as a whole though: its
+ * elements are copied through up to the one the next operation refers to, which is read as a tree and held
+ * back along with the values inserted before it, so that further operations can still refer to them.
+ *
+ * <p>A value moved or copied from one scope to another is taken from its source when that comes up, and
+ * carried along until its destination does. Since there is no going back, the source must come first in
+ * the document; otherwise the operation fails.
+ */
+class StreamingApplyProcessor implements JsonPatchProcessor {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final Comparator<Action> PATCH_ORDER = new Comparator<Action>() {
+        @Override
+        public int compare(Action first, Action second) {
+            // The halves of a move or copy are in the same order as in the whole operation
+            if (first.step.order != second.step.order)
+                return first.step.order < second.step.order ? -1 : 1;
+            return first.kind < second.kind ? -1 : (first.kind == second.kind ? 0 : 1);
+        }
+    };
+
+    private final EnumSet<CompatibilityFlags> flags;
+    private final List<Step> steps = new ArrayList<Step>();
+
+    StreamingApplyProcessor(EnumSet<CompatibilityFlags> flags) {
+        this.flags = flags;
+    }
+
+    @Override
+    public void remove(JsonPointer path) {
+        steps.add(new Step(steps.size(), Operation.REMOVE, path, null, null));
+    }
+
+    @Override
+    public void replace(JsonPointer path, JsonNode value) {
+        steps.add(new Step(steps.size(), Operation.REPLACE, path, null, value));
+    }
+
+    @Override
+    public void add(JsonPointer path, JsonNode value) {
+        steps.add(new Step(steps.size(), Operation.ADD, path, null, value));
+    }
+
+    @Override
+    public void move(JsonPointer fromPath, JsonPointer toPath) {
+        steps.add(new Step(steps.size(), Operation.MOVE, toPath, fromPath, null));
+    }
+
+    @Override
+    public void copy(JsonPointer fromPath, JsonPointer toPath) {
+        steps.add(new Step(steps.size(), Operation.COPY, toPath, fromPath, null));
+    }
+
+    @Override
+    public void test(JsonPointer path, JsonNode value) {
+        steps.add(new Step(steps.size(), Operation.TEST, path, null, value));
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    /**
+     * Copies the document read from the specified parser to the specified generator, applying the
+     * operations collected so far. The parser may either be positioned on the start of the document or not
+     * have been advanced yet; it's left positioned on the end of the document.
+     */
+    void apply(JsonParser source, JsonGenerator target) throws IOException {
+        Scope root = plan();
+        if (source.currentToken() == null && source.nextToken() == null)
+            throw new JsonParseException(source, "No document to patch");
+        transform(root, JsonPointer.ROOT, source, target);
+    }
+
+    /**
+     * Builds the tree of scopes and distributes the operations among them.
+     */
+    private Scope plan() {
+        Scope root = new Scope();
+        for (Step step : steps) {
+            root.mark(scopeOf(step.operation, step.path));
+            if (step.fromPath != null)
+                root.mark(sourceScopeOf(step));
+        }
+
+        for (Step step : steps) {
+            Scope scope = root.find(scopeOf(step.operation, step.path));
+            if (step.fromPath == null) {
+                scope.actions.add(new Action(step, Action.APPLY));
+                continue;
+            }
+
+            Scope fromScope = root.find(sourceScopeOf(step));
+            if (fromScope == scope)
+                scope.actions.add(new Action(step, Action.APPLY));
+            else {
+                fromScope.actions.add(new Action(step, Action.TAKE));
+                scope.actions.add(new Action(step, Action.PUT));
+            }
+        }
+        root.classify(0);
+        return root;
+    }
+
+    /**
+     * Returns the location of the smallest part of the document the specified operation affects, were it
+     * applied at the specified path.
+     */
+    private static JsonPointer scopeOf(Operation operation, JsonPointer path) {
+        // Inserting or removing an element shifts the following ones
+        boolean shifts = operation != Operation.REPLACE && operation != Operation.TEST;
+        if (shifts && !path.isRoot() && path.last().isArrayIndex())
+            return path.getParent();
+        return path;
+    }
+
+    private static JsonPointer sourceScopeOf(Step step) {
+        // A move removes its source, a copy only reads it
+        return scopeOf(step.operation == Operation.MOVE ? Operation.REMOVE : Operation.TEST, step.fromPath);
+    }
+
+    /**
+     * Returns whether the specified actions of a scope at the specified depth can be applied while streaming
+     * the elements of the array there: whether each refers to an element no earlier than the previous one
+     * did, and whether all of them following an append are appends too.
+     */
+    private static boolean streamsElements(List<Action> actions, int depth) {
+        int last = 0;
+        boolean appended = false;
+        for (Action action : actions) {
+            Step step = action.step;
+            if (action.kind == Action.APPLY && step.fromPath != null)
+                return false;   // moves and copies within the array
+            JsonPointer path = action.kind == Action.TAKE ? step.fromPath : step.path;
+            if (path.size() <= depth || !path.get(depth).isArrayIndex())
+                return false;
+
+            int index = path.get(depth).getIndex();
+            if (index == JsonPointer.LAST_INDEX) {
+                boolean adds = action.kind == Action.PUT || (action.kind == Action.APPLY && step.operation == Operation.ADD);
+                if (!adds || path.size() != depth + 1)
+                    return false;
+                appended = true;
+            } else {
+                if (appended || index < last)
+                    return false;
+                last = index;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the value the parser is positioned on, at the specified location, applying the operations of
+     * the scopes within it.
+     */
+    private void transform(Scope scope, JsonPointer pointer, JsonParser source, JsonGenerator target) throws IOException {
+        if (scope == null)
+            target.copyCurrentStructure(source);
+        else if (scope.streamed && source.currentToken() == JsonToken.START_ARRAY)
+            new ElementStream(pointer, source, target).apply(scope.actions);
+        else if (scope.buffered)
+            MAPPER.writeTree(target, patch(scope.actions, MAPPER.<JsonNode>readTree(source), pointer));
+        else if (source.currentToken() == JsonToken.START_OBJECT)
+            transformObject(scope, pointer, source, target);
+        else if (source.currentToken() == JsonToken.START_ARRAY)
+            transformArray(scope, pointer, source, target);
+        else {
+            // Operations reaching past a scalar value fail; they're applied to it for the error
+            JsonNode value = MAPPER.readTree(source);
+            patch(pendingActions(scope.children.values()), value, pointer);
+            MAPPER.writeTree(target, value);
+        }
+    }
+
+    private void transformObject(Scope scope, JsonPointer pointer, JsonParser source, JsonGenerator target) throws IOException {
+        Set<String> seen = new HashSet<String>();
+        target.writeStartObject();
+        while (source.nextToken() == JsonToken.FIELD_NAME) {
+            String name = source.getCurrentName();
+            source.nextToken();
+            Scope child = scope.children.get(name);
+            if (child == null) {
+                target.writeFieldName(name);
+                target.copyCurrentStructure(source);
+                continue;
+            }
+
+            seen.add(name);
+            if (child.buffered && !child.streamed) {
+                // Patched as a member of its object, since its operations may remove it
+                ObjectNode member = MAPPER.createObjectNode();
+                member.set(name, MAPPER.<JsonNode>readTree(source));
+                writeFields(patch(child.actions, member, pointer), target);
+            } else {
+                target.writeFieldName(name);
+                transform(child, pointer.append(name), source, target);
+            }
+        }
+
+        // Members the operations refer to that don't exist (yet)
+        List<Scope> missing = new ArrayList<Scope>();
+        for (Map.Entry<String, Scope> child : scope.children.entrySet())
+            if (!seen.contains(child.getKey()))
+                missing.add(child.getValue());
+        if (!missing.isEmpty())
+            writeFields(patch(pendingActions(missing), MAPPER.createObjectNode(), pointer), target);
+        target.writeEndObject();
+    }
+
+    private void transformArray(Scope scope, JsonPointer pointer, JsonParser source, JsonGenerator target) throws IOException {
+        int seen = 0;
+        int size = 0;
+        target.writeStartArray();
+        while (source.nextToken() != JsonToken.END_ARRAY) {
+            Scope child = scope.children.get(Integer.toString(size));
+            if (child != null)
+                seen++;
+            transform(child, pointer.append(size), source, target);
+            size++;
+        }
+
+        // Elements past the end, or which aren't array indices at all; operations on them fail
+        if (seen < scope.children.size()) {
+            List<Scope> missing = new ArrayList<Scope>();
+            for (Map.Entry<String, Scope> child : scope.children.entrySet()) {
+                JsonPointer.RefToken token = JsonPointer.RefToken.parse(child.getKey());
+                if (!token.isArrayIndex() || token.getIndex() == JsonPointer.LAST_INDEX || token.getIndex() >= size)
+                    missing.add(child.getValue());
+            }
+            patch(pendingActions(missing), MAPPER.createArrayNode(), pointer);
+        }
+        target.writeEndArray();
+    }
+
+    private static void writeFields(JsonNode object, JsonGenerator target) throws IOException {
+        Iterator<Map.Entry<String, JsonNode>> fields = object.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            target.writeFieldName(field.getKey());
+            MAPPER.writeTree(target, field.getValue());
+        }
+    }
+
+    /**
+     * Returns the actions of all scopes within the specified ones, in patch order.
+     */
+    private static List<Action> pendingActions(Collection<Scope> scopes) {
+        List<Action> actions = new ArrayList<Action>();
+        for (Scope scope : scopes)
+            scope.collectActions(actions);
+        Collections.sort(actions, PATCH_ORDER);
+        return actions;
+    }
+
+    /**
+     * Applies the specified actions to the specified part of the document.
+     *
+     * @param node  The part of the document the actions apply to, which is modified.
+     * @param base  The location of {@code node} in the document.
+     * @return The patched node.
+     */
+    private JsonNode patch(List<Action> actions, JsonNode node, JsonPointer base) {
+        return patch(actions, node, base, 0);
+    }
+
+    /**
+     * Applies the specified actions to a run of elements of the array at the specified location.
+     *
+     * @param offset The index in the array of the first element of {@code node}.
+     */
+    private JsonNode patch(List<Action> actions, JsonNode node, JsonPointer base, int offset) {
+        InPlaceApplyProcessor processor = new InPlaceApplyProcessor(node, flags);
+        try {
+            patch(actions, processor, base, offset);
+        } finally {
+            processor.finish();
+        }
+        return processor.result();
+    }
+
+    private static void patch(List<Action> actions, InPlaceApplyProcessor processor, JsonPointer base, int offset) {
+        for (Action action : actions) {
+            Step step = action.step;
+            if (action.kind == Action.PUT && step.carried == null)
+                throw new JsonPatchApplicationException(
+                        "Source of " + step.operation.rfcName() + " doesn't come before its destination in the document",
+                        step.operation, step.fromPath);
+            try {
+                action.applyTo(processor, base, offset);
+            } catch (JsonPointerEvaluationException e) {
+                throw new JsonPatchApplicationException(e.getMessage(), step.operation, rebase(base, e.getPath()));
+            } catch (JsonPatchApplicationException e) {
+                // Values carried to their destination are added on behalf of the move or copy
+                Operation operation = action.kind == Action.PUT ? step.operation : e.operation;
+                throw new JsonPatchApplicationException(e.getMessage(), operation, rebase(base, e.path));
+            }
+        }
+    }
+
+    private static JsonPointer relativize(JsonPointer path, JsonPointer base, int offset) {
+        List<JsonPointer.RefToken> tokens = path.decompose().subList(base.size(), path.size());
+        if (offset != 0 && tokens.get(0).getIndex() != JsonPointer.LAST_INDEX)
+            tokens.set(0, new JsonPointer.RefToken(Integer.toString(tokens.get(0).getIndex() - offset)));
+        return new JsonPointer(tokens);
+    }
+
+    private static JsonPointer rebase(JsonPointer base, JsonPointer path) {
+        if (path == null)
+            return null;
+        JsonPointer result = base;
+        for (JsonPointer.RefToken token : path.decompose())
+            result = result.append(token);
+        return result;
+    }
+
+    /**
+     * Copies an array from the parser to the generator while applying actions to its elements, which
+     * refer to them in order. The elements up to the one an action refers to are written out, and that one
+     * is read into a window of elements which the actions are applied to.
+     */
+    private final class ElementStream {
+        private final JsonPointer pointer;
+        private final JsonParser source;
+        private final JsonGenerator target;
+        private final ArrayNode window = MAPPER.createArrayNode();
+        private int written = 0;        // the index of the first element in the window
+        private boolean ended = false;
+
+        ElementStream(JsonPointer pointer, JsonParser source, JsonGenerator target) {
+            this.pointer = pointer;
+            this.source = source;
+            this.target = target;
+        }
+
+        void apply(List<Action> actions) throws IOException {
+            target.writeStartArray();
+            for (Action action : actions) {
+                Step step = action.step;
+                JsonPointer path = action.kind == Action.TAKE ? step.fromPath : step.path;
+                int index = path.get(pointer.size()).getIndex();
+                if (index == JsonPointer.LAST_INDEX)
+                    writeUpTo(Integer.MAX_VALUE);
+                else {
+                    writeUpTo(index);
+                    // Inserting an element only takes those before it
+                    boolean inserts = path.size() == pointer.size() + 1
+                            && (action.kind == Action.PUT || (action.kind == Action.APPLY && step.operation == Operation.ADD));
+                    while (written + window.size() < (inserts ? index : index + 1) && readNext())
+                        window.add(MAPPER.<JsonNode>readTree(source));
+                }
+                apply(action);
+            }
+            writeUpTo(Integer.MAX_VALUE);
+            target.writeEndArray();
+        }
+
+        private void apply(Action action) throws IOException {
+            try {
+                patch(Collections.singletonList(action), window, pointer, written);
+            } catch (JsonPatchApplicationException e) {
+                // Applied again to the whole array, for the error to refer to the actual indices; the
+                // elements already written only count for their number
+                ArrayNode array = MAPPER.createArrayNode();
+                for (int i = 0; i < written; i++)
+                    array.addNull();
+                array.addAll(window);
+                while (readNext())
+                    array.add(MAPPER.<JsonNode>readTree(source));
+                patch(Collections.singletonList(action), array, pointer);
+                throw e;
+            }
+        }
+
+        private void writeUpTo(int index) throws IOException {
+            for (; written < index; written++) {
+                if (window.size() > 0)
+                    MAPPER.writeTree(target, window.remove(0));
+                else if (readNext())
+                    target.copyCurrentStructure(source);
+                else
+                    break;
+            }
+        }
+
+        private boolean readNext() throws IOException {
+            if (!ended && source.nextToken() == JsonToken.END_ARRAY)
+                ended = true;
+            return !ended;
+        }
+    }
+
+    private static final class Step {
+        private final int order;
+        private final Operation operation;
+        private final JsonPointer path;
+        private final JsonPointer fromPath;
+        private final JsonNode value;
+        private JsonNode carried;    // moved or copied to another scope, once taken from its source
+
+        Step(int order, Operation operation, JsonPointer path, JsonPointer fromPath, JsonNode value) {
+            this.order = order;
+            this.operation = operation;
+            this.path = path;
+            this.fromPath = fromPath;
+            this.value = value;
+        }
+    }
+
+    private static final class Action {
+        static final int APPLY = 0;     // the whole operation
+        static final int TAKE = 1;      // the source half of a move or copy
+        static final int PUT = 2;       // the destination half of a move or copy
+
+        private final Step step;
+        private final int kind;
+
+        Action(Step step, int kind) {
+            this.step = step;
+            this.kind = kind;
+        }
+
+        void applyTo(InPlaceApplyProcessor processor, JsonPointer base, int offset) throws JsonPointerEvaluationException {
+            switch (kind) {
+                case TAKE: {
+                    JsonPointer fromPath = relativize(step.fromPath, base, offset);
+                    JsonNode value = fromPath.evaluate(processor.result());
+                    if (step.operation == Operation.MOVE) {
+                        processor.remove(fromPath);
+                        step.carried = value;
+                    } else
+                        step.carried = value.deepCopy();
+                    break;
+                }
+                case PUT: {
+                    processor.add(relativize(step.path, base, offset), step.carried);
+                    step.carried = null;
+                    break;
+                }
+                default: {
+                    JsonPointer path = relativize(step.path, base, offset);
+                    switch (step.operation) {
+                        case REMOVE:
+                            processor.remove(path);
+                            break;
+                        case ADD:
+                            processor.add(path, step.value);
+                            break;
+                        case REPLACE:
+                            processor.replace(path, step.value);
+                            break;
+                        case MOVE:
+                            processor.move(relativize(step.fromPath, base, offset), path);
+                            break;
+                        case COPY:
+                            processor.copy(relativize(step.fromPath, base, offset), path);
+                            break;
+                        case TEST:
+                            processor.test(path, step.value);
+                            break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A node in the tree of locations operations refer to, keyed by reference token.
+     */
+    private static final class Scope {
+        private final Map<String, Scope> children = new HashMap<String, Scope>();
+        private final List<Action> actions = new ArrayList<Action>();
+        // Whether this is the scope of some operations, which is read and patched as a whole
+        private boolean buffered = false;
+        // Whether its operations can be applied while streaming its elements, should it be an array
+        private boolean streamed = false;
+
+        void mark(JsonPointer pointer) {
+            Scope scope = this;
+            for (JsonPointer.RefToken token : pointer.decompose()) {
+                if (scope.buffered)
+                    return;
+                Scope child = scope.children.get(token.getField());
+                if (child == null) {
+                    child = new Scope();
+                    scope.children.put(token.getField(), child);
+                }
+                scope = child;
+            }
+            scope.buffered = true;
+            scope.children.clear();
+        }
+
+        Scope find(JsonPointer pointer) {
+            Scope scope = this;
+            for (JsonPointer.RefToken token : pointer.decompose()) {
+                if (scope.buffered)
+                    break;
+                scope = scope.children.get(token.getField());
+            }
+            return scope;
+        }
+
+        void classify(int depth) {
+            if (buffered)
+                streamed = streamsElements(actions, depth);
+            for (Scope child : children.values())
+                child.classify(depth + 1);
+        }
+
+        void collectActions(List<Action> into) {
+            into.addAll(actions);
+            for (Scope child : children.values())
+                child.collectActions(into);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Records the prior state of each node modified in place, so that the modifications can be reverted.
+ *
+ * <p>Only the container, the position and the value displaced are recorded for each modification, never a
+ * copy of the document; reverting them is proportional to the number of modifications.
+ */
+final class UndoLog {
+    private static final int FIELD_SET = 0;
+    private static final int FIELD_REMOVED = 1;
+    private static final int ELEMENT_SET = 2;
+    private static final int ELEMENT_INSERTED = 3;
+    private static final int ELEMENT_REMOVED = 4;
+
+    private final JsonNode root;
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    UndoLog(JsonNode root) {
+        this.root = root;
+    }
+
+    /**
+     * Records that the specified field was set, displacing the specified value ({@code null} if the field
+     * didn't exist).
+     */
+    void fieldSet(ObjectNode object, String field, JsonNode previous) {
+        entries.add(new Entry(FIELD_SET, object, field, 0, previous));
+    }
+
+    /**
+     * Records that the specified field, with the specified value, is about to be removed. Must be called
+     * before the removal, while the position of the field can still be determined.
+     */
+    void fieldRemoving(ObjectNode object, String field, JsonNode previous) {
+        int position = 0;
+        Iterator<String> names = object.fieldNames();
+        while (!names.next().equals(field))
+            position++;
+        entries.add(new Entry(FIELD_REMOVED, object, field, position, previous));
+    }
+
+    void elementSet(ArrayNode array, int index, JsonNode previous) {
+        entries.add(new Entry(ELEMENT_SET, array, null, index, previous));
+    }
+
+    void elementInserted(ArrayNode array, int index) {
+        entries.add(new Entry(ELEMENT_INSERTED, array, null, index, null));
+    }
+
+    void elementRemoved(ArrayNode array, int index, JsonNode previous) {
+        entries.add(new Entry(ELEMENT_REMOVED, array, null, index, previous));
+    }
+
+    /**
+     * Reverts all recorded modifications, most recent first.
+     *
+     * @return The document root as it was when this log was created.
+     */
+    JsonNode rollback() {
+        for (int i = entries.size() - 1; i >= 0; i--)
+            entries.get(i).revert();
+        entries.clear();
+        return root;
+    }
+
+    private static final class Entry {
+        private final int kind;
+        private final JsonNode container;
+        private final String field;
+        private final int index;
+        private final JsonNode previous;
+
+        Entry(int kind, JsonNode container, String field, int index, JsonNode previous) {
+            this.kind = kind;
+            this.container = container;
+            this.field = field;
+            this.index = index;
+            this.previous = previous;
+        }
+
+        void revert() {
+            switch (kind) {
+                case FIELD_SET:
+                    if (previous == null)
+                        ((ObjectNode) container).remove(field);
+                    else
+                        ((ObjectNode) container).set(field, previous);  // an existing field keeps its position
+                    break;
+                case FIELD_REMOVED:
+                    reinsertField();
+                    break;
+                case ELEMENT_SET:
+                    ((ArrayNode) container).set(index, previous);
+                    break;
+                case ELEMENT_INSERTED:
+                    ((ArrayNode) container).remove(index);
+                    break;
+                case ELEMENT_REMOVED:
+                    ((ArrayNode) container).insert(index, previous);
+                    break;
+            }
+        }
+
+        private void reinsertField() {
+            // Objects only append new fields, so the ones that used to follow this field are moved after it
+            ObjectNode object = (ObjectNode) container;
+            List<String> following = new ArrayList<String>();
+            Iterator<String> names = object.fieldNames();
+            for (int i = 0; names.hasNext(); i++) {
+                String name = names.next();
+                if (i >= index)
+                    following.add(name);
+            }
+            object.set(field, previous);
+            for (String name : following)
+                object.set(name, object.remove(name));
+        }
+    }
+}
@@ -25,8 +25,12 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.Iterator;
 
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.hamcrest.core.IsInstanceOf.instanceOf;
@@ -54,6 +58,164 @@ public abstract class AbstractTest {
         }
     }
 
+    @Test
+    public void testCopyOnWrite() throws Exception {
+        JsonNode node = p.getNode();
+        JsonNode doc = node.get("node");
+        JsonNode original = doc.deepCopy();
+        JsonNode patch = node.get("op");
+
+        if (p.isOperation()) {
+            assertEquals("Copy-on-write result differs at: " + p.getSourceFile(),
+                    JsonPatch.apply(patch, doc), JsonPatch.applyCopyOnWrite(patch, doc));
+        } else {
+            try {
+                JsonPatch.applyCopyOnWrite(patch, doc);
+                fail(errorMessage("Copy-on-write failure expected"));
+            } catch (Exception e) {
+                assertFailedLikeApply("Copy-on-write", e);
+            }
+        }
+        assertEquals("Source modified at: " + p.getSourceFile(), original, doc);
+    }
+
+    @Test
+    public void testStreamedPatch() throws Exception {
+        JsonNode node = p.getNode();
+        JsonNode doc = node.get("node");
+        String patch = node.get("op").toString();
+
+        if (p.isOperation()) {
+            assertEquals("Streamed patch result differs at: " + p.getSourceFile(),
+                    JsonPatch.apply(node.get("op"), doc),
+                    JsonPatch.apply(new StringReader(patch), doc, CompatibilityFlags.defaults()));
+        } else {
+            try {
+                JsonPatch.apply(new StringReader(patch), doc, CompatibilityFlags.defaults());
+                fail(errorMessage("Streamed patch failure expected"));
+            } catch (Exception e) {
+                assertFailedLikeApply("Streamed patch", e);
+            }
+        }
+    }
+
+    @Test
+    public void testSinglePassStreaming() throws Exception {
+        JsonNode node = p.getNode();
+        JsonNode doc = node.get("node");
+        JsonNode patch = node.get("op");
+
+        JsonNode result = p.isOperation() ? JsonPatch.apply(patch, doc) : null;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            JsonPatch.applyStreaming(patch, new ByteArrayInputStream(doc.toString().getBytes("UTF-8")), out,
+                    CompatibilityFlags.defaults());
+            assertEquals(errorMessage("Single-pass streaming result differs"), result,
+                    new ObjectMapper().readTree(out.toByteArray()));
+        } catch (RuntimeException e) {
+            // Moving or copying a value backwards is the one thing a single pass can't do
+            if (!isRefusedBackwardTransfer(e, patch, doc))
+                assertFailedLikeApply("Single-pass streaming", e);
+        }
+    }
+
+    /**
+     * Asserts that the specified failure of another way of applying the patch is the same as that of
+     * {@link JsonPatch#apply(JsonNode, JsonNode)}.
+     */
+    private void assertFailedLikeApply(String variant, Exception e) throws JsonProcessingException {
+        JsonNode node = p.getNode();
+        Exception expected = null;
+        try {
+            JsonPatch.apply(node.get("op"), node.get("node"));
+        } catch (Exception applyFailure) {
+            expected = applyFailure;
+        }
+        assertEquals(errorMessage(variant + " failed differently", e), String.valueOf(expected), e.toString());
+    }
+
+    /**
+     * Returns whether the specified failure is the refusal of a move or copy of the patch whose source comes
+     * after its destination in the document.
+     */
+    private static boolean isRefusedBackwardTransfer(RuntimeException e, JsonNode patch, JsonNode doc) {
+        if (!(e instanceof JsonPatchApplicationException) || e.getMessage() == null ||
+                !e.getMessage().contains("doesn't come before its destination"))
+            return false;
+        JsonPatchApplicationException failure = (JsonPatchApplicationException) e;
+        for (JsonNode operation : patch) {
+            if (operation.has("from") && failure.operation.rfcName().equals(operation.get("op").textValue()) &&
+                    failure.path.equals(JsonPointer.parse(operation.get("from").textValue())) &&
+                    comesAfter(doc, failure.path, JsonPointer.parse(operation.get("path").textValue())))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the first location comes after the second in the document; fields not in the document
+     * come after those that are.
+     */
+    private static boolean comesAfter(JsonNode doc, JsonPointer first, JsonPointer second) {
+        JsonNode node = doc;
+        for (int i = 0; i < Math.min(first.size(), second.size()) && node != null; i++) {
+            JsonPointer.RefToken a = first.get(i);
+            JsonPointer.RefToken b = second.get(i);
+            if (node.isArray() && !(a.isArrayIndex() && b.isArrayIndex()))
+                return false;
+            if (!a.equals(b))
+                return node.isArray() ? position(node, a) > position(node, b)
+                        : node.isObject() && fieldPosition(node, a) > fieldPosition(node, b);
+            node = node.isArray() ? node.get(a.getIndex()) : node.get(a.getField());
+        }
+        return false;
+    }
+
+    private static int position(JsonNode array, JsonPointer.RefToken token) {
+        return token.getIndex() == JsonPointer.LAST_INDEX ? array.size() : token.getIndex();
+    }
+
+    private static int fieldPosition(JsonNode object, JsonPointer.RefToken token) {
+        int position = 0;
+        for (Iterator<String> fields = object.fieldNames(); fields.hasNext(); position++)
+            if (fields.next().equals(token.getField()))
+                return position;
+        return position;
+    }
+
+    @Test
+    public void testAtomicInPlaceRollsBack() throws Exception {
+        if (p.isOperation())
+            return;
+
+        JsonNode node = p.getNode();
+        JsonNode doc = node.get("node").deepCopy();
+        String original = doc.toString();
+        try {
+            JsonPatch.applyInPlaceAtomically(node.get("op"), doc);
+            fail(errorMessage("Atomic in-place failure expected"));
+        } catch (RuntimeException e) {
+            assertEquals(errorMessage("Document not rolled back", e), original, doc.toString());
+        }
+    }
+
+    @Test
+    public void testInverseRestoresSource() throws Exception {
+        if (!p.isOperation())
+            return;
+
+        JsonNode node = p.getNode();
+        JsonNode original = node.get("node");
+        InPlaceApplyProcessor processor = new InPlaceApplyProcessor(original.deepCopy());
+        processor.recordInverse();
+        JsonPatch.process(node.get("op"), processor, CompatibilityFlags.defaults(), null);
+        JsonNode inverse = processor.inverse();
+
+        assertEquals("Patch misapplied at: " + p.getSourceFile(), node.get("expected"), processor.result());
+        assertEquals("Inverse patch " + inverse + " misapplied at: " + p.getSourceFile(),
+                original, JsonPatch.apply(inverse, processor.result()));
+    }
+
     private void testOperation() throws Exception {
         JsonNode node = p.getNode();
 
@@ -16,17 +16,30 @@
 
 package com.flipkart.zjsonpatch;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * User: holograph
@@ -68,6 +81,355 @@ public class ApiTest {
         assertTrue(source.findValue("b").isNull());
     }
 
+    @Test
+    public void applyCopyOnWriteSharesUntouchedNodes() throws Exception {
+        JsonNode patch = readTree("[{ \"op\": \"replace\", \"path\": \"/a/x\", \"value\": 2 }," +
+                "{ \"op\": \"copy\", \"from\": \"/a\", \"path\": \"/c\" }," +
+                "{ \"op\": \"add\", \"path\": \"/c/y\", \"value\": 3 }]");
+        JsonNode source = readTree("{\"a\": {\"x\": 1}, \"b\": {\"big\": [1, 2, 3]}}");
+        JsonNode beforeApplication = source.deepCopy();
+
+        JsonNode result = JsonPatch.applyCopyOnWrite(patch, source);
+
+        assertThat(result, is(readTree("{\"a\": {\"x\": 2}, \"b\": {\"big\": [1, 2, 3]}, \"c\": {\"x\": 2, \"y\": 3}}")));
+        assertThat(source, is(beforeApplication));
+        assertSame(source.get("b"), result.get("b"));
+    }
+
+    @Test
+    public void applyCopyOnWriteMatchesApply() {
+        Random random = new Random(19);
+        for (int i = 0; i < 1000; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode patch = JsonDiff.asJson(first, second, EnumSet.of(DiffFlags.EMIT_TEST_OPERATIONS));
+            JsonNode beforeApplication = first.deepCopy();
+
+            assertThat(JsonPatch.applyCopyOnWrite(patch, first), is(second));
+            assertThat(first, is(beforeApplication));
+        }
+    }
+
+    @Test
+    public void applyInPlaceAtomicallyRestoresDocumentOnFailure() throws Exception {
+        JsonNode patch = readTree("[{ \"op\": \"remove\", \"path\": \"/a\" }," +
+                "{ \"op\": \"add\", \"path\": \"/b/1\", \"value\": 9 }," +
+                "{ \"op\": \"move\", \"from\": \"/b/0\", \"path\": \"/d\" }," +
+                "{ \"op\": \"replace\", \"path\": \"/c\", \"value\": [] }," +
+                "{ \"op\": \"remove\", \"path\": \"/missing/x\" }]");
+        JsonNode source = readTree("{\"a\": 1, \"b\": [1, 2, 3], \"c\": {\"x\": true}}");
+        String beforeApplication = source.toString();
+
+        try {
+            JsonPatch.applyInPlaceAtomically(patch, source);
+            fail("Failure expected");
+        } catch (JsonPatchApplicationException e) {
+            // field order included
+            assertEquals(beforeApplication, source.toString());
+        }
+    }
+
+    @Test
+    public void applyInPlaceAtomicallyRestoresDocumentOnError() throws Exception {
+        ArrayNode patch = (ArrayNode) readTree("[{ \"op\": \"add\", \"path\": \"/b\", \"value\": 2 }]");
+        patch.addObject().put("op", "add").put("path", "/c").set("value", new ObjectNode(JsonNodeFactory.instance) {
+            @Override
+            public ObjectNode deepCopy() {
+                throw new StackOverflowError();
+            }
+        });
+        JsonNode source = readTree("{\"a\": 1}");
+
+        try {
+            JsonPatch.applyInPlaceAtomically(patch, source);
+            fail("Failure expected");
+        } catch (StackOverflowError e) {
+            assertEquals("{\"a\":1}", source.toString());
+        }
+    }
+
+    @Test
+    public void applyInPlaceAtomicallyRollsBackRandomPatches() {
+        Random random = new Random(23);
+        for (int i = 0; i < 1000; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            ArrayNode patch = (ArrayNode) JsonDiff.asJson(first, second);
+            patch.addObject().put("op", "test").put("path", "").put("value", "not a document");
+            String beforeApplication = first.toString();
+
+            try {
+                JsonPatch.applyInPlaceAtomically(patch, first);
+                fail("Failure expected");
+            } catch (JsonPatchApplicationException e) {
+                assertEquals(beforeApplication, first.toString());
+            }
+        }
+    }
+
+    @Test
+    public void applyInPlaceAndInvertReturnsUndoPatch() throws Exception {
+        JsonNode patch = readTree("[{ \"op\": \"add\", \"path\": \"/b/-\", \"value\": 4 }," +
+                "{ \"op\": \"move\", \"from\": \"/b/0\", \"path\": \"/a\" }," +
+                "{ \"op\": \"replace\", \"path\": \"/c/x\", \"value\": false }]");
+        JsonNode source = readTree("{\"a\": 1, \"b\": [1, 2, 3], \"c\": {\"x\": true}}");
+
+        JsonNode inverse = JsonPatch.applyInPlaceAndInvert(patch, source);
+
+        assertThat(source, is(readTree("{\"a\": 1, \"b\": [2, 3, 4], \"c\": {\"x\": false}}")));
+        assertThat(inverse, is(readTree("[{ \"op\": \"replace\", \"path\": \"/c/x\", \"value\": true }," +
+                "{ \"op\": \"replace\", \"path\": \"/a\", \"value\": 1 }," +
+                "{ \"op\": \"add\", \"path\": \"/b/0\", \"value\": 1 }," +
+                "{ \"op\": \"remove\", \"path\": \"/b/3\" }]")));
+        JsonPatch.applyInPlace(inverse, source);
+        assertThat(source, is(readTree("{\"a\": 1, \"b\": [1, 2, 3], \"c\": {\"x\": true}}")));
+    }
+
+    @Test
+    public void applyInPlaceAndInvertUndoesMoveOntoAncestor() throws Exception {
+        JsonNode patch = readTree("[{ \"op\": \"move\", \"from\": \"/a/b\", \"path\": \"/a\" }]");
+        JsonNode source = readTree("{\"a\": {\"b\": {\"c\": 1}, \"d\": 2}}");
+
+        JsonNode inverse = JsonPatch.applyInPlaceAndInvert(patch, source);
+
+        assertThat(source, is(readTree("{\"a\": {\"c\": 1}}")));
+        assertThat(JsonPatch.apply(inverse, source), is(readTree("{\"a\": {\"b\": {\"c\": 1}, \"d\": 2}}")));
+    }
+
+    @Test
+    public void applyInPlaceAndInvertUndoesMoveOntoShiftedMember() throws Exception {
+        // Removing /a/0 shifts the object the value is moved into from /a/2 to /a/1
+        JsonNode patch = readTree("[{ \"op\": \"move\", \"from\": \"/a/0\", \"path\": \"/a/1/x\" }]");
+        JsonNode source = readTree("{\"a\": [{\"y\": 1}, 2, {\"x\": 3}]}");
+
+        JsonNode inverse = JsonPatch.applyInPlaceAndInvert(patch, source);
+
+        assertThat(source, is(readTree("{\"a\": [2, {\"x\": {\"y\": 1}}]}")));
+        assertThat(JsonPatch.apply(inverse, source), is(readTree("{\"a\": [{\"y\": 1}, 2, {\"x\": 3}]}")));
+    }
+
+    @Test
+    public void applyInPlaceAndInvertRestoresRandomDocuments() {
+        Random random = new Random(29);
+        for (int i = 0; i < 1000; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode patch = JsonDiff.asJson(first, second);
+            JsonNode document = first.deepCopy();
+
+            JsonNode inverse = JsonPatch.applyInPlaceAndInvert(patch, document);
+
+            assertThat(document, is(second));
+            assertThat(JsonPatch.apply(inverse, document), is(first));
+        }
+    }
+
+    @Test
+    public void transferPatchOwnershipInsertsPatchValuesUncopied() throws Exception {
+        JsonNode patch = readTree("[{ \"op\": \"add\", \"path\": \"/a\", \"value\": {\"x\": [1]} }," +
+                "{ \"op\": \"replace\", \"path\": \"/b\", \"value\": [2] }]");
+        JsonNode source = readTree("{\"b\": 1}");
+
+        JsonNode copied = JsonPatch.apply(patch, source);
+        assertNotSame(patch.get(0).get("value"), copied.get("a"));
+
+        JsonNode owned = JsonPatch.apply(patch, source, EnumSet.of(CompatibilityFlags.TRANSFER_PATCH_OWNERSHIP));
+        assertThat(owned, is(copied));
+        assertSame(patch.get(0).get("value"), owned.get("a"));
+        assertSame(patch.get(1).get("value"), owned.get("b"));
+    }
+
+    @Test
+    public void transferPatchOwnershipAppliesRandomPatches() {
+        Random random = new Random(31);
+        for (int i = 0; i < 1000; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode patch = JsonDiff.asJson(first, second, EnumSet.of(DiffFlags.EMIT_TEST_OPERATIONS));
+
+            JsonNode result = JsonPatch.apply(patch, first, EnumSet.of(CompatibilityFlags.TRANSFER_PATCH_OWNERSHIP));
+
+            assertThat(result, is(second));
+        }
+    }
+
+    @Test
+    public void applyInPlaceEditsArraysElementByElement() {
+        Random random = new Random(41);
+        for (int i = 0; i < 200; i++) {
+            List<Integer> expected = new ArrayList<Integer>();
+            ObjectNode source = objectMapper.createObjectNode();
+            ArrayNode array = source.putArray("a");
+            for (int j = random.nextInt(50); j > 0; j--) {
+                expected.add(j);
+                array.add(j);
+            }
+            source.put("b", 0);
+
+            ArrayNode patch = objectMapper.createArrayNode();
+            for (int j = 0; j < 100; j++) {
+                int index = expected.isEmpty() ? 0 : random.nextInt(expected.size());
+                switch (random.nextInt(6)) {
+                    case 0:
+                        expected.add(index, -j);
+                        patch.addObject().put("op", "add").put("path", "/a/" + index).put("value", -j);
+                        break;
+                    case 1:
+                        expected.add(-j);
+                        patch.addObject().put("op", "add").put("path", "/a/-").put("value", -j);
+                        break;
+                    case 2:
+                        if (expected.isEmpty())
+                            continue;
+                        expected.remove(index);
+                        patch.addObject().put("op", "remove").put("path", "/a/" + index);
+                        break;
+                    case 3:
+                        if (expected.isEmpty())
+                            continue;
+                        expected.set(index, -j);
+                        patch.addObject().put("op", "replace").put("path", "/a/" + index).put("value", -j);
+                        break;
+                    case 4:
+                        if (expected.isEmpty())
+                            continue;
+                        int to = random.nextInt(expected.size());
+                        expected.add(to, expected.remove(index));
+                        patch.addObject().put("op", "move").put("from", "/a/" + index).put("path", "/a/" + to);
+                        break;
+                    default:
+                        patch.addObject().put("op", "replace").put("path", "/b").put("value", j);
+                        break;
+                }
+            }
+            String beforeApplication = source.toString();
+
+            JsonNode inverse = JsonPatch.applyInPlaceAndInvert(patch, source);
+
+            assertEquals(objectMapper.valueToTree(expected), source.get("a"));
+            JsonPatch.applyInPlace(inverse, source);
+            assertEquals(beforeApplication, source.toString());
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void applyInPlaceEditsLargeArraysInShortRuns() {
+        // Copying the array for every run of edits would take seconds
+        ObjectNode source = objectMapper.createObjectNode();
+        ArrayNode array = source.putArray("a");
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 200000; i++) {
+            array.add(i);
+            expected.add(i);
+        }
+        ArrayNode patch = objectMapper.createArrayNode();
+        for (int i = 0; i < 3000; i++) {
+            patch.addObject().put("op", "replace").put("path", "/a/" + 2 * i).put("value", -i);
+            patch.addObject().put("op", "replace").put("path", "/a/" + (2 * i + 1)).put("value", -i);
+            patch.addObject().put("op", "replace").put("path", "/b").put("value", i);
+            expected.set(2 * i, -i);
+            expected.set(2 * i + 1, -i);
+        }
+        for (int i = 0; i < 300; i++) {
+            patch.addObject().put("op", "remove").put("path", "/a/" + i);
+            patch.addObject().put("op", "add").put("path", "/a/" + i).put("value", i);
+            patch.addObject().put("op", "add").put("path", "/a/-").put("value", i);
+            patch.addObject().put("op", "replace").put("path", "/b").put("value", i);
+            expected.set(i, i);
+            expected.add(i);
+        }
+        source.put("b", 0);
+
+        JsonPatch.applyInPlace(patch, source);
+
+        assertEquals(objectMapper.valueToTree(expected), source.get("a"));
+    }
+
+    @Test(timeout = 5000)
+    public void applyInPlaceEditsLargeArraysGuardedByTests() {
+        // As diffed with EMIT_TEST_OPERATIONS; writing the edits back for every test would take seconds
+        ObjectNode source = objectMapper.createObjectNode();
+        ArrayNode array = source.putArray("a");
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 200000; i++) {
+            array.add(i);
+            expected.add(i);
+        }
+        ArrayNode patch = objectMapper.createArrayNode();
+        for (int i = 0; i < 5000; i++) {
+            patch.addObject().put("op", "test").put("path", "/a/" + i).put("value", 2 * i);
+            patch.addObject().put("op", "remove").put("path", "/a/" + i);
+            patch.addObject().put("op", "copy").put("from", "/a/" + i).put("path", "/a/" + i);
+            patch.addObject().put("op", "remove").put("path", "/a/" + i);
+            expected.remove(i);
+        }
+
+        JsonPatch.applyInPlace(patch, source);
+
+        assertEquals(objectMapper.valueToTree(expected), source.get("a"));
+    }
+
+    @Test
+    public void applyInPlaceKeepsArrayEditsPrecedingAFailure() throws Exception {
+        JsonNode patch = readTree("[{\"op\":\"remove\",\"path\":\"/a/0\"},{\"op\":\"add\",\"path\":\"/a/1\",\"value\":4}," +
+                "{\"op\":\"remove\",\"path\":\"/a/5\"}]");
+        JsonNode source = readTree("{\"a\":[1,2,3]}");
+
+        try {
+            JsonPatch.applyInPlace(patch, source);
+            fail("Failure expected");
+        } catch (JsonPatchApplicationException e) {
+            assertEquals("{\"a\":[2,4,3]}", source.toString());
+        }
+
+        source = readTree("{\"a\":[1,2,3]}");
+        try {
+            JsonPatch.applyInPlaceAtomically(patch, source);
+            fail("Failure expected");
+        } catch (JsonPatchApplicationException e) {
+            assertEquals("{\"a\":[1,2,3]}", source.toString());
+        }
+    }
+
+    @Test
+    public void applyInPlaceReadsPatchFromStream() throws Exception {
+        String patch = "[{ \"op\": \"add\", \"path\": \"/b\", \"value\": {\"c\": [1]} }," +
+                "{ \"op\": \"test\", \"path\": \"/b/c/0\", \"value\": 1 }," +
+                "{ \"op\": \"remove\", \"path\": \"/a\" }]";
+        JsonNode source = readTree("{\"a\": 1}");
+        ByteArrayInputStream in = new ByteArrayInputStream(patch.getBytes("UTF-8"));
+
+        JsonPatch.applyInPlace(in, source, CompatibilityFlags.defaults());
+
+        assertThat(source, is(readTree("{\"b\": {\"c\": [1]}}")));
+    }
+
+    @Test
+    public void applyInPlaceReadsPatchFromPositionedParser() throws Exception {
+        JsonParser parser = objectMapper.getFactory().createParser(
+                "{\"patch\": [{ \"op\": \"replace\", \"path\": \"/a\", \"value\": 2 }], \"after\": true}");
+        assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+        assertEquals(JsonToken.FIELD_NAME, parser.nextToken());
+        assertEquals(JsonToken.START_ARRAY, parser.nextToken());
+        JsonNode source = readTree("{\"a\": 1}");
+
+        JsonPatch.applyInPlace(parser, source, CompatibilityFlags.defaults());
+
+        assertThat(source, is(readTree("{\"a\": 2}")));
+        assertEquals(JsonToken.END_ARRAY, parser.currentToken());
+        assertEquals("after", parser.nextFieldName());
+    }
+
+    @Test(expected = InvalidJsonPatchException.class)
+    public void validatingStreamedNonArrayPatchShouldThrowAnException() throws Exception {
+        JsonPatch.validate(new StringReader("{\"not\": \"a patch\"}"), CompatibilityFlags.defaults());
+    }
+
+    @Test(expected = InvalidJsonPatchException.class)
+    public void validatingStreamedPatchWithInvalidOperationShouldThrowAnException() throws Exception {
+        JsonPatch.validate(new StringReader("[{\"op\": \"remove\", \"path\": \"/a\"}, 1]"), CompatibilityFlags.defaults());
+    }
+
     @Test(expected = InvalidJsonPatchException.class)
     public void applyingNonArrayPatchShouldThrowAnException() throws IOException {
         JsonNode invalid = objectMapper.readTree("{\"not\": \"a patch\"}");
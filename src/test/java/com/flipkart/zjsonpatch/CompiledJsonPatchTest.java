@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompiledJsonPatchTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void appliesLikeUncompiledPatch() {
+        Random random = new Random(17);
+        for (int i = 0; i < 500; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode patch = JsonDiff.asJson(first, second, EnumSet.of(DiffFlags.EMIT_TEST_OPERATIONS));
+            CompiledJsonPatch compiled = JsonPatch.compile(patch);
+
+            JsonNode original = first.deepCopy();
+            assertEquals(second, compiled.apply(first));
+            assertEquals(original, first);
+            compiled.applyInPlace(first);
+            assertEquals(patch.size(), compiled.size());
+        }
+    }
+
+    @Test
+    public void canBeAppliedRepeatedly() throws IOException {
+        CompiledJsonPatch compiled = JsonPatch.compile(MAPPER.readTree(
+                "[{\"op\":\"add\",\"path\":\"/list\",\"value\":[1]},{\"op\":\"add\",\"path\":\"/list/-\",\"value\":2}]"));
+
+        JsonNode first = compiled.apply(MAPPER.createObjectNode());
+        ((ArrayNode) first.get("list")).add(3);
+        JsonNode second = compiled.apply(MAPPER.createObjectNode());
+
+        assertEquals(MAPPER.readTree("{\"list\":[1,2]}"), second);
+        assertNotSame(first.get("list"), second.get("list"));
+    }
+
+    @Test
+    public void isUnaffectedByChangesToThePatch() throws IOException {
+        ObjectNode patch = (ObjectNode) MAPPER.readTree("{\"op\":\"add\",\"path\":\"/a\",\"value\":{\"b\":1}}");
+        CompiledJsonPatch compiled = JsonPatch.compile(MAPPER.createArrayNode().add(patch));
+        ((ObjectNode) patch.get("value")).put("b", 2);
+
+        assertEquals(MAPPER.readTree("{\"a\":{\"b\":1}}"), compiled.apply(MAPPER.createObjectNode()));
+    }
+
+    @Test
+    public void testValuesAreUnaffectedByChangesToThePatch() throws IOException {
+        ObjectNode test = (ObjectNode) MAPPER.readTree("{\"op\":\"test\",\"path\":\"/a\",\"value\":{\"b\":1}}");
+        CompiledJsonPatch compiled = JsonPatch.compile(MAPPER.createArrayNode().add(test));
+        ((ObjectNode) test.get("value")).put("b", 2);
+
+        compiled.apply(MAPPER.readTree("{\"a\":{\"b\":1}}"));
+    }
+
+    @Test(expected = InvalidJsonPatchException.class)
+    public void rejectsInvalidPatchesWhenCompiled() throws IOException {
+        JsonPatch.compile(MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a\"}]"));
+    }
+
+    @Test
+    public void honoursCompatibilityFlags() throws IOException {
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a\"}]");
+        CompiledJsonPatch compiled = JsonPatch.compile(patch, EnumSet.of(CompatibilityFlags.MISSING_VALUES_AS_NULLS));
+        assertEquals(MAPPER.readTree("{\"a\":null}"), compiled.apply(MAPPER.createObjectNode()));
+    }
+
+    @Test
+    public void reportsFailingOperation() throws IOException {
+        CompiledJsonPatch compiled = JsonPatch.compile(MAPPER.readTree("[{\"op\":\"move\",\"from\":\"/x/y\",\"path\":\"/a\"}]"));
+        try {
+            compiled.apply(MAPPER.createObjectNode());
+            fail();
+        } catch (JsonPatchApplicationException e) {
+            assertEquals(Operation.MOVE, e.operation);
+        }
+    }
+
+    @Test
+    public void appliesToBatchInParallel() throws IOException, InterruptedException {
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"replace\",\"path\":\"/n\",\"value\":0},{\"op\":\"add\",\"path\":\"/done\",\"value\":true}]");
+        List<JsonNode> documents = new ArrayList<JsonNode>();
+        for (int i = 0; i < 1000; i++)
+            documents.add(i % 7 == 0 ? MAPPER.createObjectNode() : MAPPER.createObjectNode().put("n", i));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            BatchResult batch = JsonPatch.applyAll(patch, documents, CompatibilityFlags.defaults(), executor);
+
+            assertEquals(1000, batch.getResults().size());
+            assertTrue(batch.hasFailures());
+            for (int i = 0; i < 1000; i++) {
+                if (i % 7 == 0) {
+                    assertNull(batch.getResults().get(i));
+                    assertTrue(batch.getFailures().get(i) instanceof JsonPatchApplicationException);
+                } else {
+                    assertEquals(MAPPER.createObjectNode().put("n", 0).put("done", true), batch.getResults().get(i));
+                    assertEquals(MAPPER.createObjectNode().put("n", i), documents.get(i));
+                }
+            }
+            assertEquals(143, batch.getFailures().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void reportsErrorsInBatch() throws IOException, InterruptedException {
+        // Enough documents for chunks to hold several, so that those following an error are patched too
+        List<JsonNode> documents = new ArrayList<JsonNode>();
+        for (int i = 0; i < 1000; i++)
+            documents.add(i % 10 != 3 ? MAPPER.createObjectNode() : new ObjectNode(JsonNodeFactory.instance) {
+                @Override
+                public ObjectNode deepCopy() {
+                    throw new StackOverflowError();
+                }
+            });
+
+        BatchResult batch = JsonPatch.compile(MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a\",\"value\":1}]"))
+                .applyAll(documents, new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 == 3) {
+                assertNull(batch.getResults().get(i));
+                assertTrue(batch.getFailures().get(i) instanceof StackOverflowError);
+            } else {
+                assertEquals(MAPPER.createObjectNode().put("a", 1), batch.getResults().get(i));
+            }
+        }
+        assertEquals(100, batch.getFailures().size());
+    }
+
+    @Test(expected = OutOfMemoryError.class)
+    public void throwsFatalErrorsInBatch() throws IOException, InterruptedException {
+        List<JsonNode> documents = new ArrayList<JsonNode>();
+        for (int i = 0; i < 100; i++)
+            documents.add(i != 42 ? MAPPER.createObjectNode() : new ObjectNode(JsonNodeFactory.instance) {
+                @Override
+                public ObjectNode deepCopy() {
+                    throw new OutOfMemoryError();
+                }
+            });
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            JsonPatch.compile(MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a\",\"value\":1}]")).applyAll(documents, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void appliesToEmptyBatch() throws IOException, InterruptedException {
+        BatchResult batch = JsonPatch.compile(MAPPER.readTree("[]")).applyAll(new ArrayList<JsonNode>(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        assertEquals(0, batch.getResults().size());
+        assertFalse(batch.hasFailures());
+    }
+}
@@ -26,9 +26,15 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
@@ -71,6 +77,147 @@ public class JsonDiffTest {
         }
     }
 
+    @Test
+    public void testGeneratedJsonDiffInLinearSpace() {
+        Random random = new Random();
+        DiffOptions options = DiffOptions.defaults().withLinearSpaceThreshold(0);
+        for (int i = 0; i < 1000; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode actualPatch = JsonDiff.asJson(first, second, DiffFlags.defaults(), options);
+            JsonNode secondPrime = JsonPatch.apply(actualPatch, first);
+            Assert.assertEquals(second, secondPrime);
+        }
+    }
+
+    @Test
+    public void testWrittenPatchMatchesPatchTree() throws IOException {
+        Random random = new Random(9);
+        EnumSet<DiffFlags> verbose = EnumSet.of(DiffFlags.EMIT_TEST_OPERATIONS, DiffFlags.ADD_ORIGINAL_VALUE_ON_REPLACE);
+        for (int i = 0; i < 1000; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+            for (EnumSet<DiffFlags> flags : Arrays.asList(DiffFlags.defaults(), verbose)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                JsonDiff.writeAsJson(first, second, flags, DiffOptions.defaults(), out);
+                StringWriter writer = new StringWriter();
+                JsonDiff.writeAsJson(first, second, flags, DiffOptions.defaults(), writer);
+
+                JsonNode expected = JsonDiff.asJson(first, second, flags);
+                Assert.assertEquals(expected, objectMapper.readTree(out.toByteArray()));
+                Assert.assertEquals(expected, objectMapper.readTree(writer.toString()));
+            }
+        }
+    }
+
+    @Test
+    public void testTypedDiffsMatchPatchTree() {
+        Random random = new Random(13);
+        EnumSet<DiffFlags> flags = EnumSet.of(DiffFlags.EMIT_TEST_OPERATIONS);
+        for (int i = 0; i < 1000; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(10));
+
+            List<Diff> diffs = JsonDiff.asDiffs(first, second, flags);
+            JsonNode patch = JsonDiff.asJson(first, second, flags);
+
+            assertEquals(patch.size(), diffs.size());
+            for (int j = 0; j < diffs.size(); j++) {
+                Diff diff = diffs.get(j);
+                JsonNode op = patch.get(j);
+                assertEquals(op.get("op").textValue(), diff.getOperation().rfcName());
+                if (diff.getOperation() == Operation.MOVE || diff.getOperation() == Operation.COPY) {
+                    assertEquals(op.get("from").textValue(), diff.getPath().toString());
+                    assertEquals(op.get("path").textValue(), diff.getToPath().toString());
+                } else {
+                    assertEquals(op.get("path").textValue(), diff.getPath().toString());
+                    assertEquals(op.get("value"), diff.getValue());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLargeArrayWithFewChangesDiffsCleanly() {
+        ArrayNode first = objectMapper.createArrayNode();
+        for (int i = 0; i < 20000; i++)
+            first.add(objectMapper.createObjectNode().put("id", i));
+        ArrayNode second = first.deepCopy();
+        second.remove(15000);
+        second.insert(10000, objectMapper.createObjectNode().put("id", -1));
+        second.remove(5);
+
+        JsonNode actualPatch = JsonDiff.asJson(first, second);
+        JsonNode secondPrime = JsonPatch.apply(actualPatch, first);
+        Assert.assertEquals(3, actualPatch.size());
+        Assert.assertEquals(second, secondPrime);
+    }
+
+    @Test
+    public void testShuffledArrayDiffsCleanly() {
+        ArrayNode first = objectMapper.createArrayNode();
+        for (int i = 0; i < 1000; i++)
+            first.add(objectMapper.createObjectNode().put("id", i));
+        List<JsonNode> elements = new ArrayList<JsonNode>();
+        for (JsonNode element : first)
+            elements.add(element);
+        Collections.shuffle(elements, new Random(3));
+        ArrayNode second = objectMapper.createArrayNode().addAll(elements);
+
+        JsonNode actualPatch = JsonDiff.asJson(first, second);
+        JsonNode secondPrime = JsonPatch.apply(actualPatch, first);
+        Assert.assertEquals(second, secondPrime);
+    }
+
+    @Test
+    public void testReorderedArrayNeedsOneMovePerDisplacedElement() throws IOException {
+        ArrayNode first = objectMapper.createArrayNode();
+        for (int i = 0; i < 1000; i++)
+            first.add(i);
+        ArrayNode rotated = first.deepCopy();
+        rotated.insert(0, rotated.remove(999));
+
+        JsonNode rotatePatch = JsonDiff.asJson(first, rotated);
+        Assert.assertEquals(objectMapper.readTree("[{\"op\":\"move\",\"from\":\"/999\",\"path\":\"/0\"}]"), rotatePatch);
+
+        ArrayNode swapped = objectMapper.createArrayNode();
+        for (int i = 0; i < 1000; i++)
+            swapped.add(i ^ 1);
+        JsonNode swapPatch = JsonDiff.asJson(first, swapped);
+        Assert.assertEquals(500, swapPatch.size());
+        Assert.assertEquals(swapped, JsonPatch.apply(swapPatch, first));
+    }
+
+    @Test
+    public void testGeneratedReorderingsApplyCleanly() {
+        Random random = new Random(7);
+        EnumSet<DiffFlags> withTests = DiffFlags.defaults();
+        withTests.add(DiffFlags.EMIT_TEST_OPERATIONS);
+        for (int i = 0; i < 1000; i++) {
+            List<JsonNode> elements = new ArrayList<JsonNode>();
+            for (int j = random.nextInt(20); j > 0; j--)
+                elements.add(objectMapper.getNodeFactory().numberNode(j));
+            ArrayNode first = objectMapper.createArrayNode().addAll(elements);
+            Collections.shuffle(elements, random);
+            ArrayNode second = objectMapper.createArrayNode().addAll(elements);
+
+            JsonNode patch = JsonDiff.asJson(first, second, withTests);
+            Assert.assertEquals(patch.toString(), second, JsonPatch.apply(patch, first));
+        }
+    }
+
+    @Test
+    public void testArrayDiffPathsAccountForCommonPrefixAndSuffix() throws IOException {
+        JsonNode edited = JsonDiff.asJson(objectMapper.readTree("[1,2,3,4,5]"), objectMapper.readTree("[1,2,9,4,5]"));
+        Assert.assertEquals(objectMapper.readTree("[{\"op\":\"replace\",\"path\":\"/2\",\"value\":9}]"), edited);
+
+        JsonNode appended = JsonDiff.asJson(objectMapper.readTree("[1,2]"), objectMapper.readTree("[1,2,3]"));
+        Assert.assertEquals(objectMapper.readTree("[{\"op\":\"add\",\"path\":\"/2\",\"value\":3}]"), appended);
+
+        JsonNode truncated = JsonDiff.asJson(objectMapper.readTree("[1,2,3,4]"), objectMapper.readTree("[1,4]"));
+        Assert.assertEquals(objectMapper.readTree("[{\"op\":\"remove\",\"path\":\"/1\"},{\"op\":\"remove\",\"path\":\"/1\"}]"), truncated);
+    }
+
     @Test
     public void testRenderedRemoveOperationOmitsValueByDefault() {
         ObjectNode source = objectMapper.createObjectNode();
@@ -156,4 +303,17 @@ public class JsonDiffTest {
         assertEquals(JsonPointer.ROOT.toString(), diff.get(0).get("path").textValue());
         assertEquals("V1", diff.get(0).get("value").get("K1").textValue());
     }
+
+    @Test
+    public void testMoveDropsTestGuardingFoldedRemove() throws IOException {
+        JsonNode source = objectMapper.readTree("[1, 2, 3, 5]");
+        JsonNode target = objectMapper.readTree("[3, 1, 2]");
+
+        JsonNode diff = JsonDiff.asJson(source, target, EnumSet.of(DiffFlags.EMIT_TEST_OPERATIONS));
+
+        // The test guarding the removal of 3 would run after 3 was moved away, so it's left out
+        assertEquals(objectMapper.readTree("[{\"op\":\"move\",\"from\":\"/2\",\"path\":\"/0\"}," +
+                "{\"op\":\"test\",\"path\":\"/3\",\"value\":5},{\"op\":\"remove\",\"path\":\"/3\",\"value\":5}]"), diff);
+        assertEquals(target, JsonPatch.apply(diff, source));
+    }
 }
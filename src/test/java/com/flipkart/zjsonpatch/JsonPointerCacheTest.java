@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JsonPointerCacheTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void countsHitsAndMisses() {
+        JsonPointerCache cache = new JsonPointerCache(100);
+        JsonPointer first = cache.parse("/a/0");
+        JsonPointer second = cache.parse("/a/0");
+        cache.parse("/b");
+
+        assertSame(first, second);
+        assertEquals(JsonPointer.parse("/a/0"), first);
+        assertEquals(1, cache.hitCount());
+        assertEquals(2, cache.missCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void staysWithinMaximumSize() {
+        JsonPointerCache cache = new JsonPointerCache(50);
+        for (int i = 0; i < 1000; i++)
+            cache.parse("/items/" + i);
+        assertTrue(cache.size() <= 50);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedPointers() {
+        JsonPointerCache cache = new JsonPointerCache(1);
+        cache.parse("/a");
+        cache.parse("/b");
+        cache.parse("/a");
+        assertEquals(0, cache.hitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidPointers() {
+        new JsonPointerCache(10).parse("a");
+    }
+
+    @Test
+    public void patchesApplyTheSameWithCache() throws IOException {
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a/-\",\"value\":1}," +
+                "{\"op\":\"move\",\"from\":\"/a/0\",\"path\":\"/b\"},{\"op\":\"test\",\"path\":\"/b\",\"value\":0}]");
+        JsonNode source = MAPPER.readTree("{\"a\":[0]}");
+        JsonPointerCache cache = new JsonPointerCache(100);
+
+        for (int i = 0; i < 3; i++)
+            assertEquals(JsonPatch.apply(patch, source), JsonPatch.apply(patch, source, CompatibilityFlags.defaults(), cache));
+        assertEquals(3, cache.missCount());
+        assertEquals(9, cache.hitCount());
+    }
+
+    @Test
+    public void canBeSharedBetweenThreads() throws InterruptedException {
+        final JsonPointerCache cache = new JsonPointerCache(64);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            String path = "/p/" + (i % 100);
+                            assertEquals(path, cache.parse(path).toString());
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertNull(failure.get());
+        assertEquals(80000, cache.hitCount() + cache.missCount());
+        assertTrue(cache.size() <= 64);
+    }
+}
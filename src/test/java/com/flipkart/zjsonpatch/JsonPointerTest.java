@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -125,6 +126,20 @@ public class JsonPointerTest {
         assertEquals("/", parsed.get(0).getField());
     }
 
+    @Test
+    public void parsesEscapedTildeFollowedByOneOnce() {
+        assertEquals("~1", JsonPointer.parse("/~01").get(0).getField());
+        assertEquals("a~1", JsonPointer.parse("/x/a~01").get(1).getField());
+        assertEquals("/~01", JsonPointer.parse("/~01").toString());
+    }
+
+    @Test
+    public void parsesIndicesBeyondIntRangeAsObjectIndirections() {
+        assertEquals(Integer.MAX_VALUE, JsonPointer.parse("/2147483647").get(0).getIndex());
+        assertFalse(JsonPointer.parse("/2147483648").get(0).isArrayIndex());
+        assertFalse(JsonPointer.parse("/99999999999").get(0).isArrayIndex());
+    }
+
     // Parsing error conditions --
 
     @Test(expected = IllegalArgumentException.class)
@@ -142,6 +157,11 @@ public class JsonPointerTest {
         JsonPointer.parse("/~a");
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void throwsOnTrailingTilde() {
+        JsonPointer.parse("/a~");
+    }
+
     // Evaluation tests --
 
     @Test
@@ -186,5 +206,46 @@ public class JsonPointerTest {
         assertEquals("/ ", JsonPointer.parse("/ ").toString());
         assertEquals("/m~0n", JsonPointer.parse("/m~0n").toString());
     }
-}
 
+    @Test
+    public void pointersBuiltDifferentlyAreEqual() {
+        JsonPointer parsed = JsonPointer.parse("/a/0/b");
+        JsonPointer appended = JsonPointer.ROOT.append("a").append(0).append("b");
+        JsonPointer decomposed = new JsonPointer(parsed.decompose());
+        for (JsonPointer pointer : new JsonPointer[] { appended, decomposed }) {
+            assertEquals(parsed, pointer);
+            assertEquals(parsed.hashCode(), pointer.hashCode());
+        }
+        assertEquals(JsonPointer.parse("/a/0"), appended.getParent());
+        assertEquals(JsonPointer.ROOT, appended.getParent().getParent().getParent());
+        assertEquals(JsonPointer.ROOT, new JsonPointer(new ArrayList<JsonPointer.RefToken>()));
+        assertEquals(JsonPointer.ROOT.hashCode(), new JsonPointer(new ArrayList<JsonPointer.RefToken>()).hashCode());
+        assertNotEquals(parsed, JsonPointer.parse("/a/1/b"));
+        assertNotEquals(parsed, JsonPointer.parse("/a/0"));
+    }
+
+    @Test
+    public void siblingsShareTheirParent() {
+        JsonPointer parent = JsonPointer.parse("/a/b");
+        JsonPointer first = parent.append(0);
+        JsonPointer second = parent.append(1);
+        assertSame(first.getParent(), second.getParent());
+        assertEquals("/a/b/0", first.toString());
+        assertEquals("/a/b/1", second.toString());
+        assertEquals("b", second.get(1).getField());
+    }
+
+    @Test
+    public void handlesDeepPointers() throws JsonPointerEvaluationException {
+        ObjectMapper om = new ObjectMapper();
+        JsonNode document = om.createArrayNode();
+        JsonPointer pointer = JsonPointer.ROOT;
+        for (int i = 0; i < 10000; i++) {
+            document = om.createArrayNode().add(document);
+            pointer = pointer.append(0);
+        }
+        assertEquals(10000, pointer.size());
+        assertEquals(JsonPointer.parse(pointer.toString()).hashCode(), pointer.hashCode());
+        assertEquals(om.createArrayNode(), pointer.evaluate(document));
+    }
+}
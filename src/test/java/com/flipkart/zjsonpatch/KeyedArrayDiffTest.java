@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class KeyedArrayDiffTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final DiffOptions OPTIONS = DiffOptions.defaults().withArrayKey("/users", "id");
+
+    @Test
+    public void changedFieldIsDiffedInPlace() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"users\":[{\"id\":1,\"name\":\"a\"},{\"id\":2,\"name\":\"b\"}]}");
+        JsonNode target = MAPPER.readTree("{\"users\":[{\"id\":1,\"name\":\"a\"},{\"id\":2,\"name\":\"c\"}]}");
+
+        JsonNode diff = JsonDiff.asJson(source, target, DiffFlags.defaults(), OPTIONS);
+
+        assertEquals(MAPPER.readTree("[{\"op\":\"replace\",\"path\":\"/users/1/name\",\"value\":\"c\"}]"), diff);
+    }
+
+    @Test
+    public void reorderedEntitiesAreMovedAndDiffed() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"users\":[{\"id\":1,\"name\":\"a\"},{\"id\":2,\"name\":\"b\"},{\"id\":3}]}");
+        JsonNode target = MAPPER.readTree("{\"users\":[{\"id\":3},{\"id\":1,\"name\":\"a\"},{\"id\":2,\"name\":\"x\"}]}");
+
+        JsonNode diff = JsonDiff.asJson(source, target, DiffFlags.defaults(), OPTIONS);
+
+        assertEquals(MAPPER.readTree("[{\"op\":\"move\",\"from\":\"/users/2\",\"path\":\"/users/0\"}," +
+                "{\"op\":\"replace\",\"path\":\"/users/2/name\",\"value\":\"x\"}]"), diff);
+    }
+
+    @Test
+    public void removedAndAddedEntitiesAreMatchedByKey() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"users\":[{\"id\":1},{\"id\":2},{\"id\":3}]}");
+        JsonNode target = MAPPER.readTree("{\"users\":[{\"id\":4},{\"id\":3},{\"id\":1}]}");
+
+        JsonNode diff = JsonDiff.asJson(source, target, DiffFlags.defaults(), OPTIONS);
+
+        assertEquals(MAPPER.readTree("[{\"op\":\"remove\",\"path\":\"/users/1\"}," +
+                "{\"op\":\"add\",\"path\":\"/users/0\",\"value\":{\"id\":4}}," +
+                "{\"op\":\"move\",\"from\":\"/users/2\",\"path\":\"/users/1\"}]"), diff);
+    }
+
+    @Test
+    public void fallsBackToPositionalDiffWithoutUniqueKeys() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"users\":[{\"id\":1,\"name\":\"a\"},{\"id\":1,\"name\":\"b\"}]}");
+        JsonNode target = MAPPER.readTree("{\"users\":[{\"id\":1,\"name\":\"b\"}]}");
+
+        JsonNode diff = JsonDiff.asJson(source, target, DiffFlags.defaults(), OPTIONS);
+
+        assertEquals(MAPPER.readTree("[{\"op\":\"remove\",\"path\":\"/users/0\"}]"), diff);
+    }
+
+    @Test
+    public void entitiesBeingReorderedAreNotCopied() throws IOException {
+        // {"id":10} sits at index 10 on both sides, but is shifted while {"id":11} is moved ahead of it
+        ArrayNode sourceUsers = MAPPER.createArrayNode();
+        ArrayNode targetUsers = MAPPER.createArrayNode();
+        for (int i = 0; i < 12; i++)
+            sourceUsers.addObject().put("id", i);
+        for (int i = 0; i < 9; i++)
+            targetUsers.addObject().put("id", i);
+        targetUsers.addObject().put("id", 11).putObject("friend").put("id", 10);
+        targetUsers.addObject().put("id", 10);
+        targetUsers.addObject().put("id", 9);
+        JsonNode source = MAPPER.createObjectNode().set("users", sourceUsers);
+        JsonNode target = MAPPER.createObjectNode().set("users", targetUsers);
+
+        JsonNode diff = JsonDiff.asJson(source, target, EnumSet.noneOf(DiffFlags.class), OPTIONS);
+
+        assertEquals(target, JsonPatch.apply(diff, source));
+    }
+
+    @Test
+    public void generatedKeyedDiffsApplyCleanly() {
+        Random random = new Random(11);
+        EnumSet<DiffFlags> withoutMoves = DiffFlags.dontNormalizeOpIntoMoveAndCopy();
+        EnumSet<DiffFlags> withTests = DiffFlags.defaults();
+        withTests.add(DiffFlags.EMIT_TEST_OPERATIONS);
+        for (int i = 0; i < 1000; i++) {
+            JsonNode source = generateDocument(random);
+            JsonNode target = generateDocument(random);
+            for (EnumSet<DiffFlags> flags : new EnumSet[] { DiffFlags.defaults(), withoutMoves, withTests }) {
+                JsonNode diff = JsonDiff.asJson(source, target, flags, OPTIONS);
+                assertEquals(diff.toString(), target, JsonPatch.apply(diff, source));
+            }
+        }
+    }
+
+    private static JsonNode generateDocument(Random random) {
+        ObjectNode document = MAPPER.createObjectNode();
+        ArrayNode users = document.putArray("users");
+        for (int id = 0; id < 10; id++) {
+            if (random.nextBoolean()) {
+                ObjectNode user = MAPPER.createObjectNode().put("id", id);
+                if (random.nextBoolean())
+                    user.put("name", "n" + random.nextInt(3));
+                if (random.nextBoolean())
+                    user.putArray("roles").add(random.nextInt(3)).add(random.nextInt(3));
+                users.insert(random.nextInt(users.size() + 1), user);
+            }
+        }
+        ArrayNode others = document.putArray("others");
+        for (int i = random.nextInt(4); i > 0; i--)
+            others.add(users.size() > 0 && random.nextBoolean() ? users.get(random.nextInt(users.size())) : MAPPER.createObjectNode().put("id", i));
+        return document;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LongestIncreasingSubsequenceTest {
+
+    @Test
+    public void marksLongestIncreasingSubsequence() {
+        assertArrayEquals(new boolean[] {false, true, true, false, true},
+                LongestIncreasingSubsequence.mark(new int[] {3, 0, 1, 4, 2}));
+        assertArrayEquals(new boolean[0], LongestIncreasingSubsequence.mark(new int[0]));
+    }
+
+    @Test
+    public void lengthMatchesQuadraticDynamicProgramming() {
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            int[] values = new int[random.nextInt(30)];
+            for (int j = 0; j < values.length; j++)
+                values[j] = random.nextInt(10);
+
+            boolean[] members = LongestIncreasingSubsequence.mark(values);
+
+            int count = 0;
+            int last = Integer.MIN_VALUE;
+            for (int j = 0; j < values.length; j++) {
+                if (members[j]) {
+                    assertTrue(values[j] > last);
+                    last = values[j];
+                    count++;
+                }
+            }
+            assertEquals(lengthOfLongest(values), count);
+        }
+    }
+
+    private static int lengthOfLongest(int[] values) {
+        int[] lengths = new int[values.length];
+        int longest = 0;
+        for (int i = 0; i < values.length; i++) {
+            lengths[i] = 1;
+            for (int j = 0; j < i; j++)
+                if (values[j] < values[i])
+                    lengths[i] = Math.max(lengths[i], lengths[j] + 1);
+            longest = Math.max(longest, lengths[i]);
+        }
+        return longest;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MyersLcsTest {
+
+    @Test
+    public void findsLcsOfSimpleSequences() {
+        int[] a = {1, 2, 3, 2, 2, 1, 1};
+        int[] b = {3, 2, 1, 2, 1, 3};
+        assertEquals(4, MyersLcs.compute(a, b).length);
+        assertEquals(4, MyersLcs.computeInLinearSpace(a, b).length);
+    }
+
+    @Test
+    public void handlesEmptySequences() {
+        int[] empty = {};
+        int[] some = {1, 2, 3};
+        assertArrayEquals(empty, MyersLcs.compute(empty, some));
+        assertArrayEquals(empty, MyersLcs.compute(some, empty));
+        assertArrayEquals(empty, MyersLcs.computeInLinearSpace(empty, some));
+        assertArrayEquals(empty, MyersLcs.computeInLinearSpace(some, empty));
+        assertArrayEquals(some, MyersLcs.compute(some, some));
+        assertArrayEquals(some, MyersLcs.computeInLinearSpace(some, some));
+    }
+
+    @Test
+    public void bothVariantsFindCommonSubsequencesOfEqualLength() {
+        Random random = new Random(1);
+        for (int i = 0; i < 5000; i++) {
+            int alphabet = 1 + random.nextInt(6);
+            int[] a = randomSequence(random, random.nextInt(40), alphabet);
+            int[] b = randomSequence(random, random.nextInt(40), alphabet);
+
+            int[] greedy = MyersLcs.compute(a, b);
+            int[] linear = MyersLcs.computeInLinearSpace(a, b);
+
+            assertTrue(isSubsequence(greedy, a) && isSubsequence(greedy, b));
+            assertTrue(isSubsequence(linear, a) && isSubsequence(linear, b));
+            assertEquals(greedy.length, linear.length);
+        }
+    }
+
+    private static int[] randomSequence(Random random, int length, int alphabet) {
+        int[] result = new int[length];
+        for (int i = 0; i < length; i++)
+            result[i] = random.nextInt(alphabet);
+        return result;
+    }
+
+    private static boolean isSubsequence(int[] candidate, int[] sequence) {
+        int matched = 0;
+        for (int symbol : sequence)
+            if (matched < candidate.length && candidate[matched] == symbol)
+                matched++;
+        return matched == candidate.length;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NodeHashCacheTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void equalObjectsHashEquallyRegardlessOfFieldOrder() throws IOException {
+        NodeHashCache hashes = new NodeHashCache();
+        JsonNode first = MAPPER.readTree("{\"a\":[1,{\"b\":2,\"c\":3}],\"d\":\"e\"}");
+        JsonNode second = MAPPER.readTree("{\"d\":\"e\",\"a\":[1,{\"c\":3,\"b\":2}]}");
+
+        assertEquals(hashes.hash(first), hashes.hash(second));
+        assertTrue(hashes.equal(first, second));
+    }
+
+    @Test
+    public void distinguishesDifferentNodes() throws IOException {
+        NodeHashCache hashes = new NodeHashCache();
+        assertFalse(hashes.equal(MAPPER.readTree("[1,2]"), MAPPER.readTree("[2,1]")));
+        assertFalse(hashes.equal(MAPPER.readTree("{\"a\":1}"), MAPPER.readTree("{\"a\":\"1\"}")));
+        assertFalse(hashes.equal(MAPPER.readTree("{\"a\":{}}"), MAPPER.readTree("{\"a\":[]}")));
+        assertFalse(hashes.equal(MAPPER.readTree("{}"), null));
+    }
+
+    @Test
+    public void agreesWithJsonNodeEquality() {
+        NodeHashCache hashes = new NodeHashCache();
+        Map<NodeHashCache.Key, JsonNode> seen = new HashMap<NodeHashCache.Key, JsonNode>();
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(4));
+            JsonNode second = TestDataGenerator.generate(random.nextInt(4));
+            assertEquals(first.equals(second), hashes.equal(first, second));
+
+            JsonNode previous = seen.put(hashes.key(first), first);
+            if (previous != null)
+                assertEquals(previous, first);
+        }
+    }
+}
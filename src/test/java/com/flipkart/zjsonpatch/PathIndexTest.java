@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class PathIndexTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void evaluatesPointersLikeTheDocument() throws Exception {
+        JsonNode document = MAPPER.readTree("{\"a\":[{\"b\":1},{\"c\":[2]}],\"d\":{\"\":3}}");
+        PathIndex index = new PathIndex(document);
+
+        for (JsonPointer pointer : pointersOf(document))
+            assertSame(pointer.evaluate(document), pointer.evaluate(index));
+    }
+
+    @Test
+    public void reportsEvaluationErrorsLikeTheDocument() throws IOException {
+        JsonNode document = MAPPER.readTree("{\"a\":[{\"b\":1}]}");
+        JsonPointer pointer = JsonPointer.parse("/a/1/b");
+        try {
+            pointer.evaluate(new PathIndex(document));
+            fail("Failure expected");
+        } catch (JsonPointerEvaluationException e) {
+            try {
+                pointer.evaluate(document);
+                fail("Failure expected");
+            } catch (JsonPointerEvaluationException expected) {
+                assertEquals(expected.getMessage(), e.getMessage());
+                assertEquals(expected.getPath(), e.getPath());
+            }
+        }
+    }
+
+    @Test
+    public void followsShiftedAndMovedNodes() throws Exception {
+        JsonNode document = MAPPER.readTree("{\"a\":[{\"x\":0},{\"x\":1},{\"x\":2}],\"b\":{}}");
+        PathIndex index = new PathIndex(document);
+        JsonNode first = JsonPointer.parse("/a/0").evaluate(index);
+        JsonNode second = JsonPointer.parse("/a/1").evaluate(index);
+        JsonNode third = JsonPointer.parse("/a/2").evaluate(index);
+
+        JsonPatch.applyInPlace(MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a/0\",\"value\":{}}," +
+                "{\"op\":\"move\",\"from\":\"/a/2\",\"path\":\"/b/c\"},{\"op\":\"remove\",\"path\":\"/a/0\"}]"), index);
+
+        assertSame(first, JsonPointer.parse("/a/0").evaluate(index));
+        assertSame(third, JsonPointer.parse("/a/1").evaluate(index));
+        assertSame(second, JsonPointer.parse("/b/c").evaluate(index));
+        assertSame(document, index.getDocument());
+    }
+
+    @Test
+    public void followsReplacedRoot() throws Exception {
+        PathIndex index = new PathIndex(MAPPER.readTree("{\"a\":{\"b\":[1]}}"));
+        JsonPointer.parse("/a/b/0").evaluate(index);
+
+        JsonPatch.compile(MAPPER.readTree("[{\"op\":\"move\",\"from\":\"/a\",\"path\":\"\"}]")).applyInPlace(index);
+
+        assertEquals(MAPPER.readTree("{\"b\":[1]}"), index.getDocument());
+        assertSame(index.getDocument().get("b"), JsonPointer.parse("/b").evaluate(index));
+        assertEquals(1, JsonPointer.parse("/b/0").evaluate(index).intValue());
+    }
+
+    @Test
+    public void staysUpToDateAcrossPatches() throws Exception {
+        Random random = new Random(43);
+        JsonNode expected = TestDataGenerator.generate(5);
+        PathIndex index = new PathIndex(expected.deepCopy());
+        for (int i = 0; i < 300; i++) {
+            ArrayNode patch = MAPPER.createArrayNode();
+            for (int j = 0; j < 5; j++) {
+                ObjectNode operation = randomOperation(random, (ArrayNode) expected);
+                try {
+                    expected = JsonPatch.apply(MAPPER.createArrayNode().add(operation), expected);
+                    patch.add(operation);
+                } catch (JsonPatchApplicationException e) {
+                    // e.g. moving a value into itself
+                }
+            }
+
+            JsonPatch.applyInPlace(patch, index);
+
+            JsonNode document = index.getDocument();
+            assertEquals(expected, document);
+            for (JsonPointer pointer : pointersOf(document))
+                assertSame(pointer.evaluate(document), pointer.evaluate(index));
+        }
+    }
+
+    private static ObjectNode randomOperation(Random random, ArrayNode document) {
+        ObjectNode operation = MAPPER.createObjectNode();
+        int size = document.size();
+        if (size == 0)
+            return operation.put("op", "add").put("path", "/0").set("value", TestDataGenerator.generate(1).get(0));
+        int element = random.nextInt(size);
+        String friends = "/" + element + "/friends/";
+        int friendCount = document.get(element).get("friends").size();
+        switch (random.nextInt(7)) {
+            case 0:
+                return operation.put("op", "add").put("path", "/" + random.nextInt(size + 1))
+                        .set("value", TestDataGenerator.generate(1).get(0));
+            case 1:
+                return operation.put("op", "remove").put("path", "/" + element);
+            case 2:
+                return operation.put("op", "move").put("from", "/" + element).put("path", "/" + random.nextInt(size));
+            case 3:
+                return operation.put("op", "add").put("path", friends + random.nextInt(friendCount + 1)).put("value", "z");
+            case 4:
+                if (friendCount == 0)
+                    return operation.put("op", "add").put("path", friends + "-").put("value", "y");
+                return operation.put("op", "remove").put("path", friends + random.nextInt(friendCount));
+            case 5:
+                return operation.put("op", "move").put("from", "/" + element)
+                        .put("path", "/" + random.nextInt(size) + "/friends/-");
+            default:
+                return operation.put("op", "replace").put("path", "/" + element + "/age").put("value", random.nextInt(10));
+        }
+    }
+
+    private static List<JsonPointer> pointersOf(JsonNode document) {
+        List<JsonPointer> pointers = new ArrayList<JsonPointer>();
+        collectPointers(document, JsonPointer.ROOT, pointers);
+        return pointers;
+    }
+
+    private static void collectPointers(JsonNode node, JsonPointer path, List<JsonPointer> pointers) {
+        pointers.add(path);
+        if (node.isArray()) {
+            for (int i = 0; i < node.size(); i++)
+                collectPointers(node.get(i), path.append(i), pointers);
+        } else if (node.isObject()) {
+            Iterator<String> fields = node.fieldNames();
+            while (fields.hasNext()) {
+                String field = fields.next();
+                collectPointers(node.get(field), path.append(field), pointers);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ResolvedNodeCacheTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void resolvesRepeatedLookupsFromCache() throws Exception {
+        ResolvedNodeCache cache = new ResolvedNodeCache(false);
+        JsonNode document = MAPPER.readTree("{\"a\":{\"b\":{\"c\":1}}}");
+        JsonNode b = cache.resolve(JsonPointer.parse("/a/b"), document);
+
+        // Modifications the cache isn't told about go unnoticed
+        ((ObjectNode) document.get("a")).putObject("b");
+
+        assertSame(b, cache.resolve(JsonPointer.parse("/a/b"), document));
+        assertSame(document.get("a"), cache.resolve(JsonPointer.parse("/a"), document));
+    }
+
+    @Test
+    public void dropsEntriesBelowReplacedChildren() throws Exception {
+        ResolvedNodeCache cache = new ResolvedNodeCache(false);
+        JsonNode document = MAPPER.readTree("{\"a\":{\"b\":{\"c\":{}}},\"d\":{}}");
+        JsonNode a = cache.resolve(JsonPointer.parse("/a"), document);
+        JsonNode d = cache.resolve(JsonPointer.parse("/d"), document);
+        cache.resolve(JsonPointer.parse("/a/b/c"), document);
+
+        ObjectNode replacement = ((ObjectNode) a).putObject("b");
+        replacement.putObject("c");
+        cache.childReplaced(JsonPointer.parse("/a"), new JsonPointer.RefToken("b"));
+
+        assertSame(replacement.get("c"), cache.resolve(JsonPointer.parse("/a/b/c"), document));
+        assertSame(a, cache.resolve(JsonPointer.parse("/a"), document));
+        assertSame(d, cache.resolve(JsonPointer.parse("/d"), document));
+    }
+
+    @Test
+    public void dropsEntriesBelowShiftedElements() throws Exception {
+        ResolvedNodeCache cache = new ResolvedNodeCache(false);
+        JsonNode document = MAPPER.readTree("{\"a\":[{\"x\":0},{\"x\":1},{\"x\":2}]}");
+        JsonNode first = cache.resolve(JsonPointer.parse("/a/0"), document);
+        cache.resolve(JsonPointer.parse("/a/1"), document);
+        cache.resolve(JsonPointer.parse("/a/2"), document);
+
+        ((ArrayNode) document.get("a")).remove(1);
+        cache.elementRemoved(JsonPointer.parse("/a"), 1);
+
+        assertSame(first, cache.resolve(JsonPointer.parse("/a/0"), document));
+        assertEquals(2, cache.resolve(JsonPointer.parse("/a/1"), document).get("x").intValue());
+    }
+
+    @Test
+    public void doesNotCacheFailedEvaluations() throws IOException {
+        ResolvedNodeCache cache = new ResolvedNodeCache(false);
+        JsonNode document = MAPPER.readTree("{\"a\":{}}");
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.resolve(JsonPointer.parse("/a/b"), document);
+                fail("Failure expected");
+            } catch (JsonPointerEvaluationException e) {
+                assertEquals(JsonPointer.parse("/a"), e.getPath());
+            }
+        }
+    }
+
+    @Test
+    public void patchesModifyNodesResolvedByEarlierOperations() throws Exception {
+        JsonNode patch = MAPPER.readTree("[{\"op\":\"add\",\"path\":\"/a/1/y\",\"value\":1}," +
+                "{\"op\":\"remove\",\"path\":\"/a/0\"},{\"op\":\"add\",\"path\":\"/a/0/z\",\"value\":2}," +
+                "{\"op\":\"move\",\"from\":\"/a/1\",\"path\":\"/b\"},{\"op\":\"add\",\"path\":\"/b/w\",\"value\":3}," +
+                "{\"op\":\"replace\",\"path\":\"/a\",\"value\":[{}]},{\"op\":\"add\",\"path\":\"/a/0/v\",\"value\":4}]");
+        JsonNode source = MAPPER.readTree("{\"a\":[{\"x\":0},{\"x\":1},{\"x\":2}]}");
+
+        JsonPatch.applyInPlace(patch, source);
+
+        assertEquals(MAPPER.readTree("{\"a\":[{\"v\":4}],\"b\":{\"x\":2,\"w\":3}}"), source);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class StreamingApplyTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static String applyStreaming(String patch, String source) throws IOException {
+        StringWriter out = new StringWriter();
+        JsonParser parser = MAPPER.getFactory().createParser(source);
+        JsonGenerator generator = MAPPER.getFactory().createGenerator(out);
+        JsonPatch.applyStreaming(MAPPER.readTree(patch), parser, generator, CompatibilityFlags.defaults());
+        return out.toString();
+    }
+
+    @Test
+    public void patchesOnlyTheMembersReferredTo() throws IOException {
+        String result = applyStreaming(
+                "[{\"op\":\"add\",\"path\":\"/z\",\"value\":5},{\"op\":\"add\",\"path\":\"/b/d\",\"value\":4}," +
+                        "{\"op\":\"remove\",\"path\":\"/a\"},{\"op\":\"replace\",\"path\":\"/b/c\",\"value\":3}]",
+                "{\"a\":1,\"b\":{\"c\":2},\"big\":[1,2,3]}");
+
+        assertEquals("{\"b\":{\"c\":3,\"d\":4},\"big\":[1,2,3],\"z\":5}", result);
+    }
+
+    @Test
+    public void carriesMovedAndCopiedValuesForward() throws IOException {
+        String result = applyStreaming(
+                "[{\"op\":\"move\",\"from\":\"/a/x\",\"path\":\"/b/1\"},{\"op\":\"copy\",\"from\":\"/b/0\",\"path\":\"/c\"}]",
+                "{\"a\":{\"x\":{\"y\":1}},\"b\":[0,2]}");
+
+        assertEquals("{\"a\":{},\"b\":[0,{\"y\":1},2],\"c\":0}", result);
+    }
+
+    @Test
+    public void rejectsMovingValuesBackwards() throws IOException {
+        try {
+            applyStreaming("[{\"op\":\"move\",\"from\":\"/b\",\"path\":\"/a/x\"}]", "{\"a\":{},\"b\":1}");
+            fail("Failure expected");
+        } catch (JsonPatchApplicationException e) {
+            assertEquals("[MOVE Operation] Source of move doesn't come before its destination in the document at /b",
+                    e.toString());
+        }
+    }
+
+    @Test
+    public void reportsErrorsAtTheirFullPaths() throws IOException {
+        String patch = "[{\"op\":\"replace\",\"path\":\"/a/0/b/c\",\"value\":1}]";
+        String source = "{\"a\":[{\"b\":{}}]}";
+        try {
+            applyStreaming(patch, source);
+            fail("Failure expected");
+        } catch (JsonPatchApplicationException e) {
+            try {
+                JsonPatch.apply(MAPPER.readTree(patch), MAPPER.readTree(source));
+                fail("Failure expected");
+            } catch (JsonPatchApplicationException expected) {
+                assertEquals(expected.toString(), e.toString());
+            }
+        }
+    }
+
+    @Test
+    public void streamsArraysWhoseElementsAreEditedInOrder() throws IOException {
+        // Elements read as trees would lose their duplicate members
+        String result = applyStreaming(
+                "[{\"op\":\"test\",\"path\":\"/a/2\",\"value\":2},{\"op\":\"remove\",\"path\":\"/a/2\"}," +
+                        "{\"op\":\"add\",\"path\":\"/a/2\",\"value\":{}},{\"op\":\"add\",\"path\":\"/a/2/b\",\"value\":1}," +
+                        "{\"op\":\"add\",\"path\":\"/a/-\",\"value\":5}]",
+                "{\"a\":[{\"k\":0,\"k\":0},1,2,{\"k\":3,\"k\":3}]}");
+
+        assertEquals("{\"a\":[{\"k\":0,\"k\":0},1,{\"b\":1},{\"k\":3,\"k\":3},5]}", result);
+    }
+
+    @Test
+    public void buffersArraysWhoseElementsAreEditedOutOfOrder() throws IOException {
+        String result = applyStreaming(
+                "[{\"op\":\"remove\",\"path\":\"/a/2\"},{\"op\":\"add\",\"path\":\"/a/0\",\"value\":5}]",
+                "{\"a\":[0,1,2,3]}");
+
+        assertEquals("{\"a\":[5,0,1,3]}", result);
+    }
+
+    @Test
+    public void editsArrayElementsInOrderLikeTreePatches() throws IOException {
+        Random random = new Random(41);
+        String[] operations = {"add", "remove", "replace", "test"};
+        for (int i = 0; i < 2000; i++) {
+            ArrayNode array = MAPPER.createArrayNode();
+            for (int size = random.nextInt(8); array.size() < size; )
+                array.add(array.size());
+            JsonNode source = MAPPER.createObjectNode().set("a", array);
+
+            ArrayNode patch = MAPPER.createArrayNode();
+            int index = 0;
+            for (int count = random.nextInt(6) + 1; patch.size() < count; ) {
+                index += random.nextInt(3);
+                String op = operations[random.nextInt(operations.length)];
+                String path = op.equals("add") && random.nextInt(4) == 0 ? "/a/-" : "/a/" + index;
+                ObjectNode operation = patch.addObject().put("op", op).put("path", path);
+                if (!op.equals("remove"))
+                    operation.put("value", op.equals("test") ? random.nextInt(8) : -1);
+            }
+
+            String expected;
+            try {
+                expected = JsonPatch.apply(patch, source).toString();
+            } catch (JsonPatchApplicationException e) {
+                expected = e.toString();
+            }
+            String actual;
+            try {
+                actual = applyStreaming(patch.toString(), source.toString());
+            } catch (JsonPatchApplicationException e) {
+                actual = e.toString();
+            }
+            assertEquals(patch + " to " + source, expected, actual);
+        }
+    }
+
+    @Test
+    public void appliesLikeTreePatches() throws IOException {
+        Random random = new Random(37);
+        for (int i = 0; i < 500; i++) {
+            JsonNode first = TestDataGenerator.generate(random.nextInt(10) + 1);
+            JsonNode second = first.deepCopy();
+            for (JsonNode element : second) {
+                if (random.nextBoolean())
+                    ((ObjectNode) element).put("age", random.nextInt(10));
+                if (random.nextBoolean())
+                    ((ArrayNode) element.get("friends")).remove(0);
+                if (random.nextBoolean())
+                    ((ObjectNode) element).remove("gender");
+            }
+            JsonNode patch = JsonDiff.asJson(first, second);
+
+            StringWriter out = new StringWriter();
+            JsonPatch.applyStreaming(patch, MAPPER.getFactory().createParser(first.toString()),
+                    MAPPER.getFactory().createGenerator(out), CompatibilityFlags.defaults());
+
+            assertEquals(second, MAPPER.readTree(out.toString()));
+        }
+    }
+}
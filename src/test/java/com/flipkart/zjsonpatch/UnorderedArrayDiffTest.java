@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 flipkart.com zjsonpatch.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.flipkart.zjsonpatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class UnorderedArrayDiffTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final DiffOptions OPTIONS = DiffOptions.defaults().withUnorderedArray("/tags");
+
+    @Test
+    public void reorderingProducesNoDiffs() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"tags\":[\"a\",\"b\",{\"c\":1},\"b\"]}");
+        JsonNode target = MAPPER.readTree("{\"tags\":[\"b\",{\"c\":1},\"b\",\"a\"]}");
+
+        JsonNode diff = JsonDiff.asJson(source, target, DiffFlags.defaults(), OPTIONS);
+
+        assertEquals(0, diff.size());
+    }
+
+    @Test
+    public void onlyChangedElementsAreRemovedOrAdded() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"tags\":[\"a\",\"b\",\"c\",\"b\"]}");
+        JsonNode target = MAPPER.readTree("{\"tags\":[\"d\",\"c\",\"b\",\"a\"]}");
+
+        JsonNode diff = JsonDiff.asJson(source, target, DiffFlags.dontNormalizeOpIntoMoveAndCopy(), OPTIONS);
+
+        assertEquals(MAPPER.readTree("[{\"op\":\"remove\",\"path\":\"/tags/3\",\"value\":\"b\"}," +
+                "{\"op\":\"add\",\"path\":\"/tags/3\",\"value\":\"d\"}]"), diff);
+    }
+
+    @Test
+    public void otherArraysAreStillOrdered() throws IOException {
+        JsonNode source = MAPPER.readTree("{\"tags\":[1,2],\"list\":[1,2]}");
+        JsonNode target = MAPPER.readTree("{\"tags\":[2,1],\"list\":[2,1]}");
+
+        JsonNode diff = JsonDiff.asJson(source, target, DiffFlags.defaults(), OPTIONS);
+
+        assertEquals(MAPPER.readTree("[{\"op\":\"move\",\"from\":\"/list/0\",\"path\":\"/list/1\"}]"), diff);
+    }
+
+    @Test
+    public void generatedDiffsYieldSameElements() {
+        Random random = new Random(5);
+        EnumSet<DiffFlags> withTests = DiffFlags.dontNormalizeOpIntoMoveAndCopy();
+        withTests.add(DiffFlags.EMIT_TEST_OPERATIONS);
+        for (int i = 0; i < 1000; i++) {
+            JsonNode source = generateDocument(random);
+            JsonNode target = generateDocument(random);
+            for (EnumSet<DiffFlags> flags : new EnumSet[] { DiffFlags.defaults(), withTests }) {
+                JsonNode diff = JsonDiff.asJson(source, target, flags, OPTIONS);
+                JsonNode result = JsonPatch.apply(diff, source);
+                assertEquals(diff.toString(), sorted(target.get("tags")), sorted(result.get("tags")));
+            }
+        }
+    }
+
+    private static List<String> sorted(JsonNode array) {
+        List<String> elements = new ArrayList<String>();
+        for (JsonNode element : array)
+            elements.add(element.toString());
+        Collections.sort(elements);
+        return elements;
+    }
+
+    private static JsonNode generateDocument(Random random) {
+        ObjectNode document = MAPPER.createObjectNode();
+        ArrayNode tags = document.putArray("tags");
+        for (int i = random.nextInt(12); i > 0; i--)
+            tags.add(random.nextBoolean() ? MAPPER.createObjectNode().put("t", random.nextInt(4)) : MAPPER.getNodeFactory().numberNode(random.nextInt(4)));
+        return document;
+    }
+}